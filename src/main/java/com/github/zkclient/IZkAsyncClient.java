@@ -0,0 +1,117 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.List;
+
+/**
+ * Asynchronous twin of {@link IZkClient}.
+ * <p>
+ * The requests are sent with the zookeeper callback api, so many requests can be in flight on
+ * one session without blocking a thread for each. Requests failing with a connection loss or an
+ * expired session are resent once the client is connected again, like
+ * {@link ZkClient#retryUntilConnected(java.util.concurrent.Callable)} does. Other failures complete the
+ * future with the same {@link com.github.zkclient.exception.ZkException} the blocking method would throw.
+ * </p>
+ *
+ * @see IZkClient
+ * @see ZkFuture
+ * @since 2.3
+ */
+public interface IZkAsyncClient {
+
+    /**
+     * Create a node.
+     *
+     * @param path zk path
+     * @param data node data
+     * @param mode create mode {@link CreateMode}
+     * @return future of the created path
+     * @see IZkClient#create(String, byte[], CreateMode)
+     */
+    ZkFuture<String> createAsync(String path, byte[] data, CreateMode mode);
+
+    /**
+     * delete a node
+     *
+     * @param path the path for the node
+     * @return future of true if deleted; false if the node not exists
+     * @see IZkClient#delete(String)
+     */
+    ZkFuture<Boolean> deleteAsync(String path);
+
+    /**
+     * check the node exists
+     *
+     * @param path the path for the node
+     * @return future of true if the node exists
+     * @see IZkClient#exists(String)
+     */
+    ZkFuture<Boolean> existsAsync(String path);
+
+    /**
+     * get the children for the node
+     *
+     * @param path the path for the node
+     * @return future of the children node names or null (then node not exists)
+     * @see IZkClient#getChildren(String)
+     */
+    ZkFuture<List<String>> getChildrenAsync(String path);
+
+    /**
+     * read the data for the node
+     *
+     * @param path the path for the node
+     * @return future of the data for the node, failed with
+     * {@link com.github.zkclient.exception.ZkNoNodeException} if the node not exists
+     * @see IZkClient#readData(String)
+     */
+    ZkFuture<byte[]> readDataAsync(String path);
+
+    /**
+     * read the data and stat for the node
+     *
+     * @param path the path for the node
+     * @param stat the stat for the node, filled before the future completes
+     * @return future of the data for the node
+     * @see IZkClient#readData(String, Stat)
+     */
+    ZkFuture<byte[]> readDataAsync(String path, Stat stat);
+
+    /**
+     * write the data for the node
+     *
+     * @param path the path for the node
+     * @param data the data for the node
+     * @return future of the stat for the node
+     * @see IZkClient#writeData(String, byte[])
+     */
+    ZkFuture<Stat> writeDataAsync(String path, byte[] data);
+
+    /**
+     * write the data for the node
+     *
+     * @param path            the path for the node
+     * @param data            the data for the node
+     * @param expectedVersion the version for the node
+     * @return future of the stat for the node
+     * @see IZkClient#writeData(String, byte[], int)
+     */
+    ZkFuture<Stat> writeDataAsync(String path, byte[] data, int expectedVersion);
+}
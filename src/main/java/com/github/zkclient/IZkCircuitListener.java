@@ -0,0 +1,33 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * An {@link IZkStateListener} which is also told about the circuit breaker of the client.
+ *
+ * @see ZkClient#setCircuitBreaker(long, long, boolean)
+ * @since 2.3
+ */
+public interface IZkCircuitListener extends IZkStateListener {
+
+    /**
+     * Called when the circuit breaker changed its state.
+     *
+     * @param state the new state
+     * @throws Exception On any error.
+     */
+    public void handleCircuitStateChanged(ZkCircuitState state) throws Exception;
+}
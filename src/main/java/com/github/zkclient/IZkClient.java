@@ -23,13 +23,17 @@ import com.github.zkclient.exception.ZkNoNodeException;
 import com.github.zkclient.exception.ZkNodeExistsException;
 import com.github.zkclient.exception.ZkTimeoutException;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.data.Stat;
 
 import java.io.Closeable;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -44,6 +48,11 @@ public interface IZkClient extends Closeable {
 
     int DEFAULT_SESSION_TIMEOUT = 30000;
 
+    /**
+     * default number of requests a bulk operation keeps in flight
+     */
+    int DEFAULT_MAX_IN_FLIGHT = 500;
+
     /**
      * Close the client.
      *
@@ -201,6 +210,22 @@ public interface IZkClient extends Closeable {
      */
     boolean deleteRecursive(String path);
 
+    /**
+     * delete a node with all children
+     * <p>
+     * The tree is listed level by level and deleted bottom-up; the requests of one level are
+     * pipelined instead of sent one by one. Nodes deleted concurrently by someone else are
+     * tolerated, nodes created concurrently below a listed node are deleted one by one.
+     * </p>
+     *
+     * @param path        the path for the node
+     * @param maxInFlight the maximal number of requests sent but not answered yet
+     * @param listener    optional listener for the progress
+     * @return true if the node was deleted; false if it did not exist
+     * @see #DEFAULT_MAX_IN_FLIGHT
+     */
+    boolean deleteRecursive(String path, int maxInFlight, ProgressListener listener);
+
     /**
      * check the node exists
      *
@@ -217,6 +242,14 @@ public interface IZkClient extends Closeable {
      */
     List<String> getChildren(String path);
 
+    /**
+     * get the stat of the node without its data
+     *
+     * @param path the path for the node
+     * @return the stat for the node or null if the node not exists
+     */
+    Stat stat(String path);
+
     /**
      * get the node creation time (unix milliseconds)
      *
@@ -261,6 +294,36 @@ public interface IZkClient extends Closeable {
      */
     byte[] readData(String path, Stat stat);
 
+    /**
+     * read the data and stat for many nodes
+     * <p>
+     * The requests are pipelined on the session, at most {@link #DEFAULT_MAX_IN_FLIGHT} at a time.
+     * </p>
+     *
+     * @param paths the paths for the nodes
+     * @return the data and stat for every existing node, keyed by path in the order of
+     * <code>paths</code>; nodes which do not exist are missing
+     * @see #readData(Collection, int)
+     */
+    Map<String, ZkData> readData(Collection<String> paths);
+
+    /**
+     * read the data and stat for many nodes
+     * <p>
+     * All requests are sent back-to-back without waiting for the responses, so reading a large
+     * number of nodes costs about one round-trip instead of one round-trip per node.
+     * </p>
+     *
+     * @param paths       the paths for the nodes
+     * @param maxInFlight the maximal number of requests sent but not answered yet
+     * @return the data and stat for every existing node, keyed by path in the order of
+     * <code>paths</code>; nodes which do not exist are missing
+     * @throws ZkInterruptedException   if operation was interrupted
+     * @throws IllegalArgumentException if called from the ZooKeeper event thread
+     * @throws ZkException              if any ZooKeeper exception other than a missing node occurred
+     */
+    Map<String, ZkData> readData(Collection<String> paths, int maxInFlight);
+
     /**
      * subscribe the changing for children
      *
@@ -396,10 +459,17 @@ public interface IZkClient extends Closeable {
      * @param ops operations
      * @return op result
      * @see org.apache.zookeeper.ZooKeeper#multi(Iterable)
-     * @see org.apache.zookeeper.Op
-     * @see org.apache.zookeeper.OpResult
+     * @see #transaction()
+     */
+    List<OpResult> multi(Iterable<Op> ops);
+
+    /**
+     * start a transaction
+     *
+     * @return a builder for the operations of the transaction
+     * @since 2.3
      */
-    List<?> multi(Iterable<?> ops);
+    ZkTransaction transaction();
 
     /**
      * get the inner zookeeper client
@@ -428,4 +498,22 @@ public interface IZkClient extends Closeable {
         public byte[] update(byte[] currentData);
 
     }
+
+    /**
+     * Progress of a long running operation
+     *
+     * @see #deleteRecursive(String, int, ProgressListener)
+     */
+    interface ProgressListener {
+
+        /**
+         * Called from the thread running the operation.
+         *
+         * @param path          the path the operation works on
+         * @param done          number of nodes processed
+         * @param total         number of nodes to process
+         * @param elapsedMillis milliseconds since the operation started
+         */
+        public void progress(String path, int done, int total, long elapsedMillis);
+    }
 }
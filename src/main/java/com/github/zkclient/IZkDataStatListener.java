@@ -0,0 +1,40 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * An {@link IZkDataListener} which also receives the stat of the node with each change.
+ * <p>
+ * The data and the stat are read in one request, so they always belong together. The client calls
+ * {@link #handleDataChange(String, byte[], Stat)} instead of {@link #handleDataChange(String, byte[])}.
+ * </p>
+ *
+ * @since 2.3
+ */
+public interface IZkDataStatListener extends IZkDataListener {
+
+    /**
+     * Called when the data of the node changed.
+     *
+     * @param dataPath the path for the node
+     * @param data     the data for the node
+     * @param stat     the stat for the node, shared by all listeners of the path and must not be modified
+     * @throws Exception On any error.
+     */
+    public void handleDataChange(String dataPath, byte[] data, Stat stat) throws Exception;
+}
@@ -0,0 +1,33 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * An {@link IZkFutureListener} is notified when a {@link ZkFuture} completes.
+ *
+ * @param <T> the result type of the future
+ * @since 2.3
+ */
+public interface IZkFutureListener<T> {
+
+    /**
+     * Called when the operation completed, either successfully or with a failure.
+     *
+     * @param future the completed future
+     * @throws Exception any exception
+     */
+    public void operationComplete(ZkFuture<T> future) throws Exception;
+}
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * May be implemented by an {@link IZkDataListener} or {@link IZkChildListener} to declare how
+ * urgent the re-read of its path is after a session expiration.
+ * <p>
+ * Paths are resynced in descending priority; a path with several listeners uses the highest
+ * priority of them. Listeners not implementing this interface have priority 0.
+ * </p>
+ *
+ * @see ZkClient#setResyncRate(int, long)
+ * @since 2.3
+ */
+public interface IZkResyncPriority {
+
+    /**
+     * @return the priority of the path, higher is earlier
+     */
+    int getResyncPriority();
+}
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.exception.ZkException;
+import com.github.zkclient.exception.ZkTimeoutException;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A request sent with the zookeeper callback api.
+ * <p>
+ * The callback of the request must call {@link #complete(int, Object)}. A connection loss or an
+ * expired session hands the operation to the retry thread of the {@link ZkClient}, which waits
+ * until the client is connected and sends the request again, as the {@link ZkRetryPolicy} of the
+ * client at the time of the first attempt allows. Any other failure completes the
+ * future with {@link ZkException#create(KeeperException)} unless {@link #recover(Code)} maps it
+ * to a result.
+ * </p>
+ *
+ * @param <T> the result type
+ * @since 2.3
+ */
+abstract class ZkAsyncOperation<T> implements Runnable {
+
+    private final ZkClient _client;
+
+    protected final String _path;
+
+    protected final ZkFuture<T> _future = new ZkFuture<T>();
+
+    private final ZkRetryPolicy _policy;
+
+    private final long _startTime = System.currentTimeMillis();
+
+    // only touched by the callback and the retry thread, one after the other
+    private volatile int _retries;
+
+    // sent by the client itself, passes the circuit breaker
+    private final boolean _internal;
+
+    ZkAsyncOperation(ZkClient client, String path) {
+        if (path == null) {
+            throw new NullPointerException("path must not be null.");
+        }
+        _client = client;
+        _path = path;
+        _policy = client.getRetryPolicy();
+        _internal = client.isInternalCall();
+    }
+
+    /**
+     * Send the request.
+     *
+     * @param connection the current connection
+     */
+    protected abstract void submit(ZkConnection connection);
+
+    /**
+     * Map an expected failure to a result, e.g. 'no node' to false for a delete.
+     *
+     * @param code the failure
+     * @return true if the future was completed
+     */
+    protected boolean recover(Code code) {
+        return false;
+    }
+
+    ZkFuture<T> start() {
+        try {
+            if (!_internal) {
+                _client.checkCircuit();
+            }
+            submit(_client._connection);
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+        return _future;
+    }
+
+    protected void complete(int rc, T result) {
+        Code code = Code.get(rc);
+        switch (code) {
+            case OK:
+                _future.set(result);
+                break;
+            case CONNECTIONLOSS:
+            case SESSIONEXPIRED:
+                retry(code);
+                break;
+            default:
+                if (!recover(code)) {
+                    fail(ZkException.create(KeeperException.create(code, _path)));
+                }
+        }
+    }
+
+    private void retry(Code code) {
+        int retries = ++_retries;
+        long delay = _policy.getDelayMillis(retries, System.currentTimeMillis() - _startTime);
+        if (delay < 0) {
+            fail(new ZkTimeoutException("Gave up after " + retries + " attempts in "
+                    + (System.currentTimeMillis() - _startTime) + " ms with " + _policy,
+                    KeeperException.create(code, _path)));
+            return;
+        }
+        _client.retryAsync(this, delay);
+    }
+
+    void fail(Throwable cause) {
+        _future.setException(cause);
+    }
+
+    /**
+     * Resend the request once the client is connected again.
+     */
+    @Override
+    public void run() {
+        try {
+            if (!_internal) {
+                // fail fast once the breaker is open instead of waiting again
+                _client.checkCircuit();
+            }
+            if (_client.isConnected()) {
+                start();
+                return;
+            }
+            long maxWait = _policy.getMaxWaitMillis(System.currentTimeMillis() - _startTime);
+            if (!_internal) {
+                maxWait = _client.getCircuitWaitMillis(maxWait);
+            }
+            awaitConnected(maxWait);
+        } catch (RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Wait for the connection without parking the retry thread, which the retries of all other
+     * operations share. Whichever comes first, the connection or the timeout, resumes the operation.
+     */
+    private void awaitConnected(long maxWaitMillis) {
+        final AtomicBoolean resumed = new AtomicBoolean();
+        final ZkFuture<KeeperState> connected = _client.awaitConnected();
+        connected.addListener(new IZkFutureListener<KeeperState>() {
+
+            @Override
+            public void operationComplete(ZkFuture<KeeperState> future) {
+                if (!resumed.compareAndSet(false, true)) {
+                    return;
+                }
+                if (future.isSuccess()) {
+                    // back to the retry thread, this may be the zookeeper event thread
+                    _client.retryAsync(ZkAsyncOperation.this, 0);
+                } else {
+                    // closed
+                    fail(future.getCause());
+                }
+            }
+        });
+        if (resumed.get() || maxWaitMillis >= Integer.MAX_VALUE) {
+            // no deadline, the connection or the close of the client resumes the operation
+            return;
+        }
+        boolean scheduled = _client.scheduleAsync(new Runnable() {
+
+            @Override
+            public void run() {
+                if (resumed.compareAndSet(false, true)) {
+                    connected.cancel(false);
+                    retry(Code.CONNECTIONLOSS);
+                }
+            }
+        }, maxWaitMillis);
+        if (!scheduled && resumed.compareAndSet(false, true)) {
+            fail(new ZkException("ZkClient was closed"));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZkAsyncOperation[" + _path + "]";
+    }
+}
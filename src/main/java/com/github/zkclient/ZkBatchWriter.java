@@ -0,0 +1,304 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.exception.ZkException;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs.Ids;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups independent writes of a {@link ZkClient} into multi transactions.
+ * <p>
+ * A write waits up to the linger time for other writes, and the batch is sent as soon as it holds
+ * the maximum number of operations or bytes. Each write gets the {@link OpResult} of its own
+ * operation. A failed operation rolls back the whole transaction on the server; the writer then
+ * fails only the future of that operation and sends the others again without it.
+ * </p>
+ * <p>
+ * A batch is taken and submitted under one lock, so batches reach the session in the order their
+ * writes were added, and the writes of one thread are applied in order. That no longer holds for a
+ * batch sent again, after a failed write or a connection loss: its writes move behind the batches
+ * sent meanwhile. Writes which depend on each other, e.g. the creation of a parent and its child,
+ * belong into a {@link ZkTransaction} instead.
+ * </p>
+ * <p>
+ * The caches of the client forget a written path when the result of its batch comes back.
+ * </p>
+ *
+ * @see ZkClient#setBatchWriter(int, int, long)
+ * @since 2.3
+ */
+public class ZkBatchWriter {
+
+    private final ZkClient _client;
+
+    private final int _maxOps;
+
+    private final int _maxBytes;
+
+    private final long _lingerMillis;
+
+    private final Object _lock = new Object();
+
+    private List<Entry> _batch = new ArrayList<Entry>();
+
+    private int _bytes;
+
+    private boolean _closed;
+
+    private final AtomicLong _batches = new AtomicLong();
+
+    private final AtomicLong _operations = new AtomicLong();
+
+    private final AtomicLong _resent = new AtomicLong();
+
+    private final ScheduledExecutorService _scheduler;
+
+    ZkBatchWriter(ZkClient client, final String name, int maxOps, int maxBytes, long lingerMillis) {
+        if (maxOps <= 0) {
+            throw new IllegalArgumentException("maxOps must be positive: " + maxOps);
+        }
+        _client = client;
+        _maxOps = maxOps;
+        _maxBytes = Math.min(maxBytes, ZkTransaction.getMaxBytes());
+        _lingerMillis = Math.max(0, lingerMillis);
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ZkClient-BatchWriter-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public ZkFuture<OpResult> create(String path, byte[] data, CreateMode mode) {
+        return add(Op.create(path, data, Ids.OPEN_ACL_UNSAFE, mode), data);
+    }
+
+    public ZkFuture<OpResult> delete(String path) {
+        return delete(path, -1);
+    }
+
+    public ZkFuture<OpResult> delete(String path, int version) {
+        return add(Op.delete(path, version), null);
+    }
+
+    public ZkFuture<OpResult> writeData(String path, byte[] data) {
+        return writeData(path, data, -1);
+    }
+
+    public ZkFuture<OpResult> writeData(String path, byte[] data, int expectedVersion) {
+        return add(Op.setData(path, data, expectedVersion), data);
+    }
+
+    private ZkFuture<OpResult> add(Op op, byte[] data) {
+        Entry entry = new Entry(op, ZkTransaction.estimate(op.getPath(), data));
+        synchronized (_lock) {
+            if (_closed) {
+                entry._future.setException(new ZkException("The batch writer was closed"));
+                return entry._future;
+            }
+            if (!_batch.isEmpty() && _bytes + entry._size > _maxBytes) {
+                send(take());
+            }
+            _batch.add(entry);
+            _bytes += entry._size;
+            if (_batch.size() >= _maxOps || _bytes >= _maxBytes) {
+                send(take());
+            } else if (_batch.size() == 1) {
+                linger(_batch);
+            }
+        }
+        return entry._future;
+    }
+
+    private void linger(final List<Entry> batch) {
+        try {
+            _scheduler.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    synchronized (_lock) {
+                        if (_batch != batch) {
+                            // sent because it was full
+                            return;
+                        }
+                        send(take());
+                    }
+                }
+            }, _lingerMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed, close() sends the batch
+        }
+    }
+
+    // must hold the lock
+    private List<Entry> take() {
+        List<Entry> batch = _batch;
+        _batch = new ArrayList<Entry>();
+        _bytes = 0;
+        return batch;
+    }
+
+    /**
+     * Send the waiting writes now.
+     */
+    public void flush() {
+        synchronized (_lock) {
+            if (!_batch.isEmpty()) {
+                send(take());
+            }
+        }
+    }
+
+    /**
+     * Submit the batch. Called with the lock held for new batches, which keeps them in order; the
+     * submit only queues the request, it does not wait for the answer.
+     */
+    private void send(final List<Entry> batch) {
+        final List<Op> ops = new ArrayList<Op>(batch.size());
+        for (Entry entry : batch) {
+            ops.add(entry._op);
+        }
+        _batches.incrementAndGet();
+        _operations.addAndGet(ops.size());
+        new ZkAsyncOperation<List<OpResult>>(_client, ops.get(0).getPath()) {
+
+            @Override
+            protected void submit(ZkConnection connection) {
+                connection.multi(ops, new MultiCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, List<OpResult> results) {
+                        // a failed operation comes with the results of all operations
+                        boolean executed = results != null && results.size() == ops.size();
+                        complete(executed ? Code.OK.intValue() : rc, results);
+                    }
+                }, null);
+            }
+        }.start().addListener(new IZkFutureListener<List<OpResult>>() {
+
+            @Override
+            public void operationComplete(ZkFuture<List<OpResult>> future) {
+                // read your own writes, also if the batch failed or was rolled back
+                for (Entry entry : batch) {
+                    _client.invalidateCaches(entry._op);
+                }
+                if (future.isSuccess()) {
+                    completed(batch, future.getResult());
+                } else {
+                    for (Entry entry : batch) {
+                        entry._future.setException(future.getCause());
+                    }
+                }
+            }
+        });
+    }
+
+    private void completed(List<Entry> batch, List<OpResult> results) {
+        List<Entry> rolledBack = new ArrayList<Entry>();
+        for (int i = 0; i < batch.size(); i++) {
+            Entry entry = batch.get(i);
+            OpResult result = results.get(i);
+            if (!(result instanceof OpResult.ErrorResult)) {
+                entry._future.set(result);
+                continue;
+            }
+            Code code = Code.get(((OpResult.ErrorResult) result).getErr());
+            if (code == Code.OK || code == Code.RUNTIMEINCONSISTENCY) {
+                rolledBack.add(entry);
+            } else {
+                entry._future.setException(ZkException.create(KeeperException.create(code, entry._op.getPath())));
+            }
+        }
+        if (rolledBack.size() == batch.size()) {
+            // no operation to blame, do not loop
+            for (Entry entry : rolledBack) {
+                entry._future.setException(ZkException.create(KeeperException.create(Code.RUNTIMEINCONSISTENCY,
+                        entry._op.getPath())));
+            }
+        } else if (!rolledBack.isEmpty()) {
+            _resent.addAndGet(rolledBack.size());
+            send(rolledBack);
+        }
+    }
+
+    /**
+     * @return the number of transactions sent
+     */
+    public long getBatches() {
+        return _batches.get();
+    }
+
+    /**
+     * @return the number of operations sent, including operations sent again
+     */
+    public long getOperations() {
+        return _operations.get();
+    }
+
+    /**
+     * @return the number of operations sent again after another operation of their batch failed
+     */
+    public long getResent() {
+        return _resent.get();
+    }
+
+    /**
+     * Send the waiting writes and reject new ones.
+     */
+    public void close() {
+        synchronized (_lock) {
+            _closed = true;
+        }
+        flush();
+        _scheduler.shutdownNow();
+    }
+
+    private static class Entry {
+
+        private final Op _op;
+
+        private final int _size;
+
+        private final ZkFuture<OpResult> _future = new ZkFuture<OpResult>();
+
+        Entry(Op op, int size) {
+            _op = op;
+            _size = size;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ZkBatchWriter[maxOps=" + _maxOps + ", maxBytes=" + _maxBytes + ", linger=" + _lingerMillis + "ms]";
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * A snapshot of the counters of a client side cache.
+ *
+ * @since 2.3
+ */
+public class ZkCacheStats {
+
+    private final long _hits;
+
+    private final long _misses;
+
+    private final long _evictions;
+
+    private final int _size;
+
+    ZkCacheStats(long hits, long misses, long evictions, int size) {
+        _hits = hits;
+        _misses = misses;
+        _evictions = evictions;
+        _size = size;
+    }
+
+    /**
+     * @return number of lookups answered from the cache
+     */
+    public long getHits() {
+        return _hits;
+    }
+
+    /**
+     * @return number of lookups sent to the server
+     */
+    public long getMisses() {
+        return _misses;
+    }
+
+    /**
+     * @return the share of lookups answered from the cache, 0 without lookups
+     */
+    public double getHitRatio() {
+        long total = _hits + _misses;
+        return total == 0 ? 0 : (double) _hits / total;
+    }
+
+    /**
+     * @return number of entries dropped to stay within the limits of the cache
+     */
+    public long getEvictions() {
+        return _evictions;
+    }
+
+    /**
+     * @return number of cached entries
+     */
+    public int getSize() {
+        return _size;
+    }
+
+    @Override
+    public String toString() {
+        return "ZkCacheStats[hits=" + _hits + ", misses=" + _misses + ", evictions=" + _evictions + ", size=" + _size + "]";
+    }
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * A change of a child of a {@link ZkPathChildrenCache}.
+ *
+ * @since 2.3
+ */
+public class ZkChildEvent {
+
+    public enum Type {
+        CHILD_ADDED, CHILD_UPDATED, CHILD_REMOVED
+    }
+
+    private final Type _type;
+
+    private final String _path;
+
+    private final ZkData _data;
+
+    public ZkChildEvent(Type type, String path, ZkData data) {
+        _type = type;
+        _path = path;
+        _data = data;
+    }
+
+    public Type getType() {
+        return _type;
+    }
+
+    /**
+     * @return the full path of the child
+     */
+    public String getPath() {
+        return _path;
+    }
+
+    /**
+     * @return the data and stat of the child; the last known ones for {@link Type#CHILD_REMOVED}
+     */
+    public ZkData getData() {
+        return _data;
+    }
+
+    @Override
+    public String toString() {
+        return "ZkChildEvent[" + _type + ", " + _path + ", " + _data + "]";
+    }
+}
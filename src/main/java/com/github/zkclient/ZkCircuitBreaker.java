@@ -0,0 +1,232 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.exception.ZkCircuitOpenException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Fails the operations of a {@link ZkClient} at once while the client is disconnected longer than a
+ * grace period.
+ * <p>
+ * Within the grace period operations wait for the connection as usual. After it the breaker
+ * opens. When the client is connected again the breaker becomes half open and sends a probe
+ * request; only if the probe succeeds the breaker closes and lets operations through again. A
+ * failed probe opens the breaker and is repeated after the probe interval.
+ * </p>
+ *
+ * @since 2.3
+ */
+class ZkCircuitBreaker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZkCircuitBreaker.class);
+
+    private final ZkClient _client;
+
+    private final String _name;
+
+    private final long _gracePeriodMillis;
+
+    private final long _probeIntervalMillis;
+
+    private final boolean _serveFromCache;
+
+    private final AtomicReference<ZkCircuitState> _state = new AtomicReference<ZkCircuitState>(ZkCircuitState.CLOSED);
+
+    // 0 while connected
+    private volatile long _disconnectedSince;
+
+    private final AtomicLong _opened = new AtomicLong();
+
+    private final AtomicLong _rejected = new AtomicLong();
+
+    private final AtomicLong _staleReads = new AtomicLong();
+
+    private final ScheduledExecutorService _scheduler;
+
+    private final Runnable _probe = new Runnable() {
+
+        @Override
+        public void run() {
+            probe();
+        }
+    };
+
+    ZkCircuitBreaker(ZkClient client, final String name, long gracePeriodMillis, long probeIntervalMillis,
+                     boolean serveFromCache) {
+        _client = client;
+        _name = name;
+        _gracePeriodMillis = gracePeriodMillis;
+        _probeIntervalMillis = probeIntervalMillis;
+        _serveFromCache = serveFromCache;
+        _scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ZkClient-CircuitBreaker-" + name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start the grace period, unless it is running already.
+     */
+    void disconnected() {
+        if (_disconnectedSince != 0) {
+            return;
+        }
+        final long since = System.currentTimeMillis();
+        _disconnectedSince = since;
+        schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                if (_disconnectedSince == since) {
+                    open();
+                }
+            }
+        }, _gracePeriodMillis);
+    }
+
+    void connected() {
+        _disconnectedSince = 0;
+        if (transition(ZkCircuitState.OPEN, ZkCircuitState.HALF_OPEN)) {
+            schedule(_probe, 0);
+        }
+    }
+
+    private void open() {
+        if (_disconnectedSince == 0 || !transition(ZkCircuitState.CLOSED, ZkCircuitState.OPEN)) {
+            return;
+        }
+        // connected again in between
+        if (_disconnectedSince == 0 && transition(ZkCircuitState.OPEN, ZkCircuitState.HALF_OPEN)) {
+            schedule(_probe, 0);
+        }
+    }
+
+    private void probe() {
+        if (_state.get() != ZkCircuitState.HALF_OPEN) {
+            return;
+        }
+        if (!_client.isConnected()) {
+            // the next connection half opens the breaker again
+            transition(ZkCircuitState.HALF_OPEN, ZkCircuitState.OPEN);
+            return;
+        }
+        if (_client.probeConnection()) {
+            transition(ZkCircuitState.HALF_OPEN, ZkCircuitState.CLOSED);
+        } else if (transition(ZkCircuitState.HALF_OPEN, ZkCircuitState.OPEN)) {
+            schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (_disconnectedSince == 0 && transition(ZkCircuitState.OPEN, ZkCircuitState.HALF_OPEN)) {
+                        probe();
+                    }
+                }
+            }, _probeIntervalMillis);
+        }
+    }
+
+    private boolean transition(ZkCircuitState from, ZkCircuitState to) {
+        // counted before the new state is visible, so the stats never show an uncounted opening
+        boolean opening = from == ZkCircuitState.CLOSED;
+        if (opening) {
+            _opened.incrementAndGet();
+        }
+        if (!_state.compareAndSet(from, to)) {
+            if (opening) {
+                _opened.decrementAndGet();
+            }
+            return false;
+        }
+        LOG.info("Circuit breaker of " + _name + " is " + to);
+        _client.fireCircuitStateChanged(to);
+        return true;
+    }
+
+    private void schedule(Runnable task, long delayMillis) {
+        try {
+            _scheduler.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
+
+    /**
+     * @throws ZkCircuitOpenException if the breaker is open or half open
+     */
+    void check() {
+        if (_state.get() == ZkCircuitState.CLOSED) {
+            long since = _disconnectedSince;
+            if (since == 0 || System.currentTimeMillis() - since < _gracePeriodMillis) {
+                return;
+            }
+            // the grace period is over but the timer did not run yet
+            open();
+            if (_state.get() == ZkCircuitState.CLOSED) {
+                return;
+            }
+        }
+        _rejected.incrementAndGet();
+        throw new ZkCircuitOpenException("Not connected to zookeeper for more than " + _gracePeriodMillis
+                + " ms, the circuit breaker is " + _state.get());
+    }
+
+    /**
+     * @param maxWaitMillis the maximal time the caller wants to wait for the connection
+     * @return the time to wait for the connection at most before checking the breaker again
+     */
+    long getMaxWaitMillis(long maxWaitMillis) {
+        long since = _disconnectedSince;
+        if (since == 0) {
+            // the disconnection may not be noticed yet
+            return Math.min(maxWaitMillis, _gracePeriodMillis);
+        }
+        return Math.min(maxWaitMillis, Math.max(0, since + _gracePeriodMillis - System.currentTimeMillis()));
+    }
+
+    boolean isServingFromCache() {
+        return _serveFromCache;
+    }
+
+    void staleRead() {
+        _staleReads.incrementAndGet();
+    }
+
+    ZkCircuitState getState() {
+        return _state.get();
+    }
+
+    ZkCircuitStats getStats() {
+        return new ZkCircuitStats(_state.get(), _opened.get(), _rejected.get(), _staleReads.get());
+    }
+
+    void close() {
+        _scheduler.shutdownNow();
+    }
+}
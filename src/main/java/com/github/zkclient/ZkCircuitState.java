@@ -0,0 +1,37 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * The state of the circuit breaker of a {@link ZkClient}.
+ *
+ * @see ZkClient#setCircuitBreaker(long, long, boolean)
+ * @since 2.3
+ */
+public enum ZkCircuitState {
+    /**
+     * operations are sent, and wait for the connection during the grace period
+     */
+    CLOSED,
+    /**
+     * disconnected longer than the grace period, operations fail at once
+     */
+    OPEN,
+    /**
+     * connected again, operations still fail at once until a probe request succeeds
+     */
+    HALF_OPEN
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * A snapshot of the state and counters of the circuit breaker of a client.
+ *
+ * @see ZkClient#getCircuitStats()
+ * @since 2.3
+ */
+public class ZkCircuitStats {
+
+    static final ZkCircuitStats DISABLED = new ZkCircuitStats(ZkCircuitState.CLOSED, 0, 0, 0);
+
+    private final ZkCircuitState _state;
+
+    private final long _opened;
+
+    private final long _rejected;
+
+    private final long _staleReads;
+
+    ZkCircuitStats(ZkCircuitState state, long opened, long rejected, long staleReads) {
+        _state = state;
+        _opened = opened;
+        _rejected = rejected;
+        _staleReads = staleReads;
+    }
+
+    /**
+     * @return the current state
+     */
+    public ZkCircuitState getState() {
+        return _state;
+    }
+
+    /**
+     * @return how often the breaker opened
+     */
+    public long getOpened() {
+        return _opened;
+    }
+
+    /**
+     * @return number of operations failed at once
+     */
+    public long getRejected() {
+        return _rejected;
+    }
+
+    /**
+     * @return number of rejected reads answered from the read cache instead
+     */
+    public long getStaleReads() {
+        return _staleReads;
+    }
+
+    @Override
+    public String toString() {
+        return "ZkCircuitStats[state=" + _state + ", opened=" + _opened + ", rejected=" + _rejected
+                + ", staleReads=" + _staleReads + "]";
+    }
+}
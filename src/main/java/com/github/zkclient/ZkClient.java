@@ -17,26 +17,43 @@ package com.github.zkclient;
 
 import com.github.zkclient.ZkEventThread.ZkEvent;
 import com.github.zkclient.exception.ZkBadVersionException;
+import com.github.zkclient.exception.ZkCircuitOpenException;
 import com.github.zkclient.exception.ZkException;
 import com.github.zkclient.exception.ZkInterruptedException;
 import com.github.zkclient.exception.ZkNoNodeException;
 import com.github.zkclient.exception.ZkNodeExistsException;
 import com.github.zkclient.exception.ZkTimeoutException;
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.KeeperException.Code;
 import org.apache.zookeeper.KeeperException.ConnectionLossException;
 import org.apache.zookeeper.KeeperException.SessionExpiredException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.WatchedEvent;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooDefs.Ids;
+import org.apache.zookeeper.ZooDefs.OpCode;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.ZooKeeper.States;
 import org.apache.zookeeper.data.Stat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -44,7 +61,15 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Zookeeper client
@@ -52,28 +77,66 @@ import java.util.concurrent.TimeUnit;
  * The client is thread-safety
  * </p>
  */
-public class ZkClient implements Watcher, IZkClient {
+public class ZkClient implements Watcher, IZkClient, IZkAsyncClient {
 
     private final static Logger LOG = LoggerFactory.getLogger(ZkClient.class);
 
     protected ZkConnection _connection;
 
-    private final Map<String, Set<IZkChildListener>> _childListener = new ConcurrentHashMap<String, Set<IZkChildListener>>();
+    private final ZkPathTrie<Set<IZkChildListener>> _childListener = new ZkPathTrie<Set<IZkChildListener>>();
 
-    private final Map<String, Set<IZkDataListener>> _dataListener = new ConcurrentHashMap<String, Set<IZkDataListener>>();
+    private final ZkPathTrie<Set<IZkDataListener>> _dataListener = new ZkPathTrie<Set<IZkDataListener>>();
 
     private final Set<IZkStateListener> _stateListener = new CopyOnWriteArraySet<IZkStateListener>();
 
-    private volatile KeeperState _currentState;
+    private final ZkConnectionState _currentState = new ZkConnectionState();
 
     private final ZkLock _zkEventLock = new ZkLock();
 
     private volatile boolean _shutdownTriggered;
 
-    private ZkEventThread _eventThread;
+    private final int _eventThreads;
+
+    private ZkEventDispatcher _eventDispatcher;
+
+    private volatile boolean _eventCoalescing;
+
+    private volatile int _eventQueueCapacity;
+
+    private volatile ZkEventOverflowPolicy _eventOverflowPolicy = ZkEventOverflowPolicy.BLOCK;
+
+    private volatile long _eventMaxBlockMillis;
+
+    private ZkResyncScheduler _resyncScheduler;
+
+    private volatile int _resyncRate;
+
+    private volatile long _resyncMaxStartDelayMillis;
 
     private Thread _zookeeperEventThread;
 
+    private ScheduledExecutorService _asyncRetryExecutor;
+
+    private final Set<ZkAsyncOperation<?>> _pendingRetries =
+            Collections.newSetFromMap(new ConcurrentHashMap<ZkAsyncOperation<?>, Boolean>());
+
+    private volatile ZkRetryPolicy _retryPolicy = ZkRetryPolicy.UNTIL_CONNECTED;
+
+    private volatile ZkCircuitBreaker _circuitBreaker;
+
+    // set while the client itself re-arms watches or loads caches, which the breaker must not reject
+    private final ThreadLocal<Boolean> _internalCall = new ThreadLocal<Boolean>();
+
+    private volatile ZkBatchWriter _batchWriter;
+
+    private final ZkKnownPaths _knownPaths = new ZkKnownPaths(10000);
+
+    private final ZkExistsWaiters _existsWaiters = new ZkExistsWaiters();
+
+    private volatile ZkExistenceCache _existenceCache;
+
+    private volatile ZkReadCache _readCache;
+
     /**
      * Create a client with default connection timeout and default session timeout
      *
@@ -130,6 +193,21 @@ public class ZkClient implements Watcher, IZkClient {
         this(new ZkConnection(connectString, sessionTimeout), connectionTimeout);
     }
 
+    /**
+     * Create a client which notifies the listeners from several event threads
+     *
+     * @param connectString     zookeeper connection string
+     *                          comma separated host:port pairs, each corresponding to a zk
+     *                          server. e.g. "127.0.0.1:3000,127.0.0.1:3001,127.0.0.1:3002"
+     * @param sessionTimeout    session timeout in milliseconds
+     * @param connectionTimeout connection timeout in milliseconds
+     * @param eventThreads      number of event threads
+     * @see #ZkClient(ZkConnection, int, int)
+     */
+    public ZkClient(String connectString, int sessionTimeout, int connectionTimeout, int eventThreads) {
+        this(new ZkConnection(connectString, sessionTimeout), connectionTimeout, eventThreads);
+    }
+
     /**
      * Create a client with special implementation
      *
@@ -137,12 +215,41 @@ public class ZkClient implements Watcher, IZkClient {
      * @param connectionTimeout connection timeout in milliseconds
      */
     public ZkClient(ZkConnection zkConnection, int connectionTimeout) {
+        this(zkConnection, connectionTimeout, 1);
+    }
+
+    /**
+     * Create a client with special implementation which notifies the listeners from several event
+     * threads.
+     * <p>
+     * The events of a path are hashed onto one of the threads, so the listeners of a path are
+     * still notified in order, but a slow listener only delays the paths sharing its thread.
+     * State changes are always delivered in order by the same thread.
+     * </p>
+     *
+     * @param zkConnection      special client
+     * @param connectionTimeout connection timeout in milliseconds
+     * @param eventThreads      number of event threads
+     */
+    public ZkClient(ZkConnection zkConnection, int connectionTimeout, int eventThreads) {
+        if (eventThreads <= 0) {
+            throw new IllegalArgumentException("eventThreads must be positive: " + eventThreads);
+        }
         _connection = zkConnection;
+        _eventThreads = eventThreads;
         connect(connectionTimeout, this);
     }
 
 
     public List<String> subscribeChildChanges(String path, IZkChildListener listener) {
+        addChildListener(path, listener);
+        return watchForChilds(path);
+    }
+
+    /**
+     * Register a child listener without setting a watch. The next read of the children sets it.
+     */
+    void addChildListener(String path, IZkChildListener listener) {
         synchronized (_childListener) {
             Set<IZkChildListener> listeners = _childListener.get(path);
             if (listeners == null) {
@@ -151,7 +258,6 @@ public class ZkClient implements Watcher, IZkClient {
             }
             listeners.add(listener);
         }
-        return watchForChilds(path);
     }
 
     public void unsubscribeChildChanges(String path, IZkChildListener childListener) {
@@ -160,21 +266,31 @@ public class ZkClient implements Watcher, IZkClient {
             if (listeners != null) {
                 listeners.remove(childListener);
             }
+            if (listeners != null && listeners.isEmpty()) {
+                _childListener.remove(path);
+            }
         }
     }
 
     public void subscribeDataChanges(String path, IZkDataListener listener) {
-        Set<IZkDataListener> listeners;
+        addDataListener(path, listener);
+        watchForData(path);
+        LOG.debug("Subscribed data changes for " + path);
+    }
+
+    /**
+     * Register a data listener without setting a watch. The next read of the path sets it, e.g.
+     * a pipelined {@link #readData(Collection)} for many paths.
+     */
+    void addDataListener(String path, IZkDataListener listener) {
         synchronized (_dataListener) {
-            listeners = _dataListener.get(path);
+            Set<IZkDataListener> listeners = _dataListener.get(path);
             if (listeners == null) {
                 listeners = new CopyOnWriteArraySet<IZkDataListener>();
                 _dataListener.put(path, listeners);
             }
             listeners.add(listener);
         }
-        watchForData(path);
-        LOG.debug("Subscribed data changes for " + path);
     }
 
     public void unsubscribeDataChanges(String path, IZkDataListener dataListener) {
@@ -220,22 +336,88 @@ public class ZkClient implements Watcher, IZkClient {
 
 
     public void createPersistent(String path, boolean createParents) {
+        if (!createParents) {
+            create(path, null, CreateMode.PERSISTENT);
+            return;
+        }
+        String parentDir = getParent(path);
+        if (_knownPaths.contains(parentDir)) {
+            // the usual case on a hot path: only the node itself may be missing
+            try {
+                create(path, null, CreateMode.PERSISTENT);
+                _knownPaths.add(path);
+                return;
+            } catch (ZkNodeExistsException e) {
+                _knownPaths.add(path);
+                return;
+            } catch (ZkNoNodeException e) {
+                _knownPaths.remove(parentDir);
+            }
+        }
+        if (ZkClientUtils.zkVersion == ZkClientUtils.ZkVersion.V33) {
+            createPersistentRecursive(path);
+            return;
+        }
+        boolean useKnownPaths = true;
+        while (true) {
+            // check all parents at once, then create the missing ones in one transaction
+            List<String> paths = new ArrayList<String>();
+            for (String p = path; !"/".equals(p); p = getParent(p)) {
+                if (useKnownPaths && _knownPaths.contains(p)) {
+                    break;
+                }
+                paths.add(0, p);
+            }
+            List<ZkFuture<Boolean>> exists = sendAll(paths, DEFAULT_MAX_IN_FLIGHT, new PathRequest<Boolean>() {
+
+                @Override
+                public ZkFuture<Boolean> send(String p) {
+                    return existsAsync(p, false);
+                }
+            });
+            final List<Op> ops = new ArrayList<Op>(paths.size());
+            for (int i = 0; i < paths.size(); i++) {
+                if (exists.get(i).getResult()) {
+                    _knownPaths.add(paths.get(i));
+                } else {
+                    ops.add(Op.create(paths.get(i), null, Ids.OPEN_ACL_UNSAFE, CreateMode.PERSISTENT));
+                }
+            }
+            if (ops.isEmpty()) {
+                return;
+            }
+            try {
+                multi(ops);
+                for (String p : paths) {
+                    _knownPaths.add(p);
+                }
+                return;
+            } catch (ZkNodeExistsException e) {
+                // created concurrently, check again
+            } catch (ZkNoNodeException e) {
+                // a known parent was deleted in between
+                _knownPaths.remove(getParent(paths.get(0)));
+                useKnownPaths = false;
+            }
+        }
+    }
+
+    private void createPersistentRecursive(String path) {
         try {
             create(path, null, CreateMode.PERSISTENT);
         } catch (ZkNodeExistsException e) {
-            if (!createParents) {
-                throw e;
-            }
+            // ignore
         } catch (ZkNoNodeException e) {
-            if (!createParents) {
-                throw e;
-            }
-            String parentDir = path.substring(0, path.lastIndexOf('/'));
-            createPersistent(parentDir, createParents);
-            createPersistent(path, createParents);
+            createPersistentRecursive(getParent(path));
+            createPersistentRecursive(path);
         }
     }
 
+    static String getParent(String path) {
+        int index = path.lastIndexOf('/');
+        return index > 0 ? path.substring(0, index) : "/";
+    }
+
 
     public void createPersistent(String path, byte[] data) {
         create(path, data, CreateMode.PERSISTENT);
@@ -300,37 +482,84 @@ public class ZkClient implements Watcher, IZkClient {
                 processDataOrChildChange(event);
             }
         } finally {
-            if (stateChanged) {
-                getEventLock().getStateChangedCondition().signalAll();
-
-                // If the session expired we have to signal all conditions, because watches might have been removed and
-                // there is no guarantee that those
-                // conditions will be signaled at all after an Expired event
-                if (event.getState() == KeeperState.Expired) {
+            try {
+                if (stateChanged) {
+                    getEventLock().getStateChangedCondition().signalAll();
+
+                    // If the session expired we have to signal all conditions, because watches might have been removed and
+                    // there is no guarantee that those
+                    // conditions will be signaled at all after an Expired event
+                    if (event.getState() == KeeperState.Expired) {
+                        getEventLock().getZNodeEventCondition().signalAll();
+                        getEventLock().getDataChangedCondition().signalAll();
+                        // We also have to notify all listeners that something might have changed
+                        fireAllEvents();
+                    }
+                }
+                if (znodeChanged) {
                     getEventLock().getZNodeEventCondition().signalAll();
+                }
+                if (dataChanged) {
                     getEventLock().getDataChangedCondition().signalAll();
-                    // We also have to notify all listeners that something might have changed
-                    fireAllEvents();
                 }
+            } finally {
+                getEventLock().unlock();
             }
             if (znodeChanged) {
-                getEventLock().getZNodeEventCondition().signalAll();
-            }
-            if (dataChanged) {
-                getEventLock().getDataChangedCondition().signalAll();
+                _existsWaiters.signal(event.getPath());
+            } else if (event.getState() == KeeperState.Expired || event.getState() == KeeperState.SyncConnected) {
+                _existsWaiters.signalAll();
             }
-            getEventLock().unlock();
             LOG.debug("Leaving process event");
         }
     }
 
     private void fireAllEvents() {
-        for (Entry<String, Set<IZkChildListener>> entry : _childListener.entrySet()) {
-            fireChildChangedEvents(entry.getKey(), entry.getValue());
+        ZkResyncScheduler scheduler = _resyncScheduler;
+        if (scheduler == null) {
+            return;
+        }
+        List<ZkResyncScheduler.Task> tasks = new ArrayList<ZkResyncScheduler.Task>();
+        for (Entry<String, Set<IZkChildListener>> entry : _childListener.toMap().entrySet()) {
+            final String path = entry.getKey();
+            tasks.add(new ZkResyncScheduler.Task(path, resyncPriority(entry.getValue())) {
+
+                @Override
+                public void run() {
+                    Set<IZkChildListener> listeners = _childListener.get(path);
+                    if (listeners != null && !listeners.isEmpty()) {
+                        fireChildChangedEvents(path, listeners);
+                    }
+                }
+            });
+        }
+        for (Entry<String, Set<IZkDataListener>> entry : _dataListener.toMap().entrySet()) {
+            final String path = entry.getKey();
+            tasks.add(new ZkResyncScheduler.Task(path, resyncPriority(entry.getValue())) {
+
+                @Override
+                public void run() {
+                    Set<IZkDataListener> listeners = _dataListener.get(path);
+                    if (listeners != null && !listeners.isEmpty()) {
+                        fireDataChangedEvents(path, listeners);
+                    }
+                }
+            });
+        }
+        scheduler.schedule(tasks);
+    }
+
+    static int resyncPriority(Set<?> listeners) {
+        if (listeners.isEmpty()) {
+            return 0;
         }
-        for (Entry<String, Set<IZkDataListener>> entry : _dataListener.entrySet()) {
-            fireDataChangedEvents(entry.getKey(), entry.getValue());
+        int priority = Integer.MIN_VALUE;
+        for (Object listener : listeners) {
+            // listeners without a declared priority count as 0
+            int p = listener instanceof IZkResyncPriority ? ((IZkResyncPriority) listener).getResyncPriority() : 0;
+            priority = Math.max(priority, p);
         }
+        return priority;
     }
 
     public List<String> getChildren(String path) {
@@ -353,33 +582,74 @@ public class ZkClient implements Watcher, IZkClient {
 
 
     public int countChildren(String path) {
-        try {
-            Stat stat = new Stat();
-            this.readData(path, stat);
-            return stat.getNumChildren();
-            //return getChildren(path).size();
-        } catch (ZkNoNodeException e) {
-            return -1;
-        }
+        // the stat holds the number, no need to download the data or the names
+        Stat stat = stat(path);
+        return stat != null ? stat.getNumChildren() : -1;
     }
 
     protected boolean exists(final String path, final boolean watch) {
-        return retryUntilConnected(new Callable<Boolean>() {
+        return stat(path, watch) != null;
+    }
+
+    public Stat stat(String path) {
+        return stat(path, hasListeners(path));
+    }
+
+    protected Stat stat(final String path, final boolean watch) {
+        // only an answer with a watch is kept, the watch tells when it is outdated
+        ZkExistenceCache cache = watch ? _existenceCache : null;
+        long epoch = cache != null ? cache.epoch(path) : 0;
+        Stat stat = retryUntilConnected(new Callable<Stat>() {
 
             @Override
-            public Boolean call() throws Exception {
-                return _connection.exists(path, watch);
+            public Stat call() throws Exception {
+                return _connection.stat(path, watch);
             }
         });
+        if (cache != null) {
+            cache.put(path, stat != null, epoch);
+        }
+        return stat;
     }
 
     public boolean exists(final String path) {
-        return exists(path, hasListeners(path));
+        boolean watch = hasListeners(path);
+        ZkExistenceCache cache = _existenceCache;
+        if (watch && cache != null) {
+            Boolean exists = cache.get(path);
+            if (exists != null) {
+                return exists;
+            }
+        }
+        return exists(path, watch);
     }
 
     private void processStateChanged(WatchedEvent event) {
         LOG.info("zookeeper state changed (" + event.getState() + ")");
         setCurrentState(event.getState());
+        ZkExistenceCache existenceCache = _existenceCache;
+        ZkReadCache readCache = _readCache;
+        ZkCircuitBreaker circuitBreaker = _circuitBreaker;
+        if (event.getState() != KeeperState.SyncConnected) {
+            // events may be missed until the watches are back
+            if (existenceCache != null) {
+                existenceCache.clear();
+            }
+            if (readCache != null) {
+                // kept for stale reads while the circuit breaker is open
+                readCache.suspend();
+            }
+            if (circuitBreaker != null) {
+                circuitBreaker.disconnected();
+            }
+        } else {
+            if (readCache != null && readCache.isSuspended()) {
+                readCache.clear();
+            }
+            if (circuitBreaker != null) {
+                circuitBreaker.connected();
+            }
+        }
         if (getShutdownTrigger()) {
             return;
         }
@@ -387,6 +657,7 @@ public class ZkClient implements Watcher, IZkClient {
             fireStateChangedEvent(event.getState());
 
             if (event.getState() == KeeperState.Expired) {
+                _knownPaths.clear();
                 reconnect();
                 fireNewSessionEvents();
             }
@@ -397,7 +668,7 @@ public class ZkClient implements Watcher, IZkClient {
 
     private void fireNewSessionEvents() {
         for (final IZkStateListener stateListener : _stateListener) {
-            _eventThread.send(new ZkEvent("New session event sent to " + stateListener) {
+            _eventDispatcher.send(new ZkEvent("New session event sent to " + stateListener) {
 
                 @Override
                 public void run() throws Exception {
@@ -409,7 +680,7 @@ public class ZkClient implements Watcher, IZkClient {
 
     private void fireStateChangedEvent(final KeeperState state) {
         for (final IZkStateListener stateListener : _stateListener) {
-            _eventThread.send(new ZkEvent("State changed to " + state + " sent to " + stateListener) {
+            _eventDispatcher.send(new ZkEvent("State changed to " + state + " sent to " + stateListener) {
 
                 @Override
                 public void run() throws Exception {
@@ -449,9 +720,99 @@ public class ZkClient implements Watcher, IZkClient {
         return delete(path);
     }
 
+    public boolean deleteRecursive(String path, int maxInFlight, ProgressListener listener) {
+        final long startTime = System.currentTimeMillis();
+        // list the tree level by level, each level with pipelined getChildren requests
+        List<List<String>> levels = new ArrayList<List<String>>();
+        List<String> level = new ArrayList<String>(1);
+        level.add(path);
+        int total = 0;
+        while (!level.isEmpty()) {
+            levels.add(level);
+            total += level.size();
+            List<ZkFuture<List<String>>> futures = sendAll(level, maxInFlight, new PathRequest<List<String>>() {
+
+                @Override
+                public ZkFuture<List<String>> send(String p) {
+                    return getChildrenAsync(p, false);
+                }
+            });
+            List<String> nextLevel = new ArrayList<String>();
+            for (int i = 0; i < level.size(); i++) {
+                List<String> children = futures.get(i).getResult();
+                if (children != null) {
+                    String parent = level.get(i).equals("/") ? "" : level.get(i);
+                    for (String child : children) {
+                        nextLevel.add(parent + "/" + child);
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        if (listener != null) {
+            listener.progress(path, 0, total, System.currentTimeMillis() - startTime);
+        }
+        // delete bottom-up, the nodes of one level with pipelined delete requests
+        int deleted = 0;
+        boolean rootDeleted = false;
+        for (int depth = levels.size() - 1; depth >= 0; depth--) {
+            level = levels.get(depth);
+            List<ZkFuture<Boolean>> futures = sendAll(level, maxInFlight, new PathRequest<Boolean>() {
+
+                @Override
+                public ZkFuture<Boolean> send(String p) {
+                    return deleteAsync(p);
+                }
+            });
+            for (int i = 0; i < level.size(); i++) {
+                boolean result;
+                try {
+                    // false if someone else deleted the node in between
+                    result = futures.get(i).getResult();
+                } catch (ZkException e) {
+                    if (!isNotEmpty(e)) {
+                        throw e;
+                    }
+                    // a child was created after listing the tree
+                    result = deleteRecursive(level.get(i));
+                }
+                if (result) {
+                    deleted++;
+                }
+                if (depth == 0) {
+                    rootDeleted = result;
+                }
+                if (listener != null && deleted % maxInFlight == 0 && result) {
+                    listener.progress(path, deleted, total, System.currentTimeMillis() - startTime);
+                }
+            }
+        }
+        long elapsed = System.currentTimeMillis() - startTime;
+        if (listener != null) {
+            listener.progress(path, deleted, total, elapsed);
+        }
+        LOG.info("Deleted " + deleted + " of " + total + " nodes under " + path + " in " + elapsed + "ms ("
+                + (elapsed > 0 ? deleted * 1000L / elapsed : deleted) + " nodes/s)");
+        return rootDeleted;
+    }
+
+    private static boolean isNotEmpty(ZkException e) {
+        return e.getCause() instanceof KeeperException && ((KeeperException) e.getCause()).code() == Code.NOTEMPTY;
+    }
+
     private void processDataOrChildChange(WatchedEvent event) {
         final String path = event.getPath();
 
+        ZkExistenceCache existenceCache = _existenceCache;
+        if (existenceCache != null) {
+            existenceCache.invalidate(path);
+        }
+        invalidateReadCache(path);
+
+        if (event.getType() == EventType.NodeDeleted) {
+            _knownPaths.remove(path);
+        }
+
         if (event.getType() == EventType.NodeChildrenChanged ||
                 event.getType() == EventType.NodeCreated ||
                 event.getType() == EventType.NodeDeleted) {
@@ -471,68 +832,193 @@ public class ZkClient implements Watcher, IZkClient {
         }
     }
 
-    private void fireDataChangedEvents(final String path, Set<IZkDataListener> listeners) {
-        for (final IZkDataListener listener : listeners) {
-            _eventThread.send(new ZkEvent("Data of " + path + " changed sent to " + listener) {
+    private void fireDataChangedEvents(final String path, final Set<IZkDataListener> listeners) {
+        // one event per path: the watch is reinstalled and the data is read once for all listeners
+        _eventDispatcher.send(new ZkEvent("Data of " + path + " changed sent to " + listeners, path, "data:" + path) {
 
-                @Override
-                public void run() throws Exception {
+            @Override
+            public void run() throws Exception {
+                byte[] data;
+                Stat stat = new Stat();
+                boolean deleted = false;
+                boolean internal = beginInternalCall();
+                try {
                     // reinstall watch
                     exists(path, true);
+                    data = readData(path, stat, true);
+                } catch (ZkNoNodeException e) {
+                    data = null;
+                    deleted = true;
+                } finally {
+                    endInternalCall(internal);
+                }
+                if (deleted) {
+                    for (IZkDataListener listener : listeners) {
+                        try {
+                            listener.handleDataDeleted(path);
+                        } catch (Exception ex) {
+                            ZkClientUtils.rethrowInterruptedException(ex);
+                            LOG.error("Error handling data deleted of " + path + " in " + listener, ex);
+                        }
+                    }
+                    return;
+                }
+                for (IZkDataListener listener : listeners) {
                     try {
-                        byte[] data = readData(path, null, true);
-                        listener.handleDataChange(path, data);
-                    } catch (ZkNoNodeException e) {
-                        listener.handleDataDeleted(path);
+                        if (listener instanceof IZkDataStatListener) {
+                            ((IZkDataStatListener) listener).handleDataChange(path, data, stat);
+                        } else {
+                            listener.handleDataChange(path, data);
+                        }
+                    } catch (Exception ex) {
+                        ZkClientUtils.rethrowInterruptedException(ex);
+                        LOG.error("Error handling data change of " + path + " in " + listener, ex);
                     }
                 }
-            });
-        }
+            }
+
+            @Override
+            public void rearm() throws Exception {
+                boolean internal = beginInternalCall();
+                try {
+                    exists(path, true);
+                } finally {
+                    endInternalCall(internal);
+                }
+            }
+        });
     }
 
-    private void fireChildChangedEvents(final String path, Set<IZkChildListener> childListeners) {
-        try {
-            // reinstall the watch
-            for (final IZkChildListener listener : childListeners) {
-                _eventThread.send(new ZkEvent("Children of " + path + " changed sent to " + listener) {
+    private void fireChildChangedEvents(final String path, final Set<IZkChildListener> childListeners) {
+        // one event per path: the watch is reinstalled and the children are read once for all listeners
+        _eventDispatcher.send(new ZkEvent("Children of " + path + " changed sent to " + childListeners, path, "children:" + path) {
 
-                    @Override
-                    public void run() throws Exception {
-                        try {
-                            // if the node doesn't exist we should listen for the root node to reappear
-                            exists(path);
-                            List<String> children = getChildren(path);
-                            listener.handleChildChange(path, children);
-                        } catch (ZkNoNodeException e) {
-                            listener.handleChildChange(path, null);
-                        }
+            @Override
+            public void run() throws Exception {
+                List<String> children;
+                boolean internal = beginInternalCall();
+                try {
+                    // if the node doesn't exist we should listen for the root node to reappear
+                    exists(path);
+                    children = getChildren(path);
+                } catch (ZkNoNodeException e) {
+                    children = null;
+                } finally {
+                    endInternalCall(internal);
+                }
+                for (IZkChildListener listener : childListeners) {
+                    try {
+                        listener.handleChildChange(path, children);
+                    } catch (Exception ex) {
+                        ZkClientUtils.rethrowInterruptedException(ex);
+                        LOG.error("Error handling child change of " + path + " in " + listener, ex);
                     }
-                });
+                }
             }
-        } catch (Exception e) {
-            LOG.error("Failed to fire child changed event. Unable to getChildren.  ", e);
-        }
+
+            @Override
+            public void rearm() throws Exception {
+                boolean internal = beginInternalCall();
+                try {
+                    exists(path);
+                    getChildren(path);
+                } catch (ZkNoNodeException e) {
+                    // the exists watch tells when the node is back
+                } finally {
+                    endInternalCall(internal);
+                }
+            }
+        });
     }
 
     public boolean waitUntilExists(String path, TimeUnit timeUnit, long time) throws ZkInterruptedException {
-        Date timeout = new Date(System.currentTimeMillis() + timeUnit.toMillis(time));
+        long deadline = System.currentTimeMillis() + timeUnit.toMillis(time);
         LOG.debug("Waiting until znode '" + path + "' becomes available.");
         if (exists(path)) {
             return true;
         }
-        acquireEventLock();
-        try {
-            while (!exists(path, true)) {
-                boolean gotSignal = getEventLock().getZNodeEventCondition().awaitUntil(timeout);
-                if (!gotSignal) {
-                    return false;
+        return !awaitExists(Collections.singletonList(path), true, deadline).isEmpty();
+    }
+
+    /**
+     * wait some time until one of the nodes exists
+     *
+     * @param paths    the paths for the nodes
+     * @param timeUnit the time unit
+     * @param time     some time
+     * @return the first of the paths found to exist, or null if none exists before the end time
+     */
+    public String waitUntilExistsAny(Collection<String> paths, TimeUnit timeUnit, long time) {
+        long deadline = System.currentTimeMillis() + timeUnit.toMillis(time);
+        List<String> existing = awaitExists(paths, false, deadline);
+        return existing.isEmpty() ? null : existing.get(0);
+    }
+
+    /**
+     * wait some time until all nodes exist
+     * <p>
+     * Every node was seen to exist at some point, but a node may have been deleted again by the
+     * time the last one appears.
+     * </p>
+     *
+     * @param paths    the paths for the nodes
+     * @param timeUnit the time unit
+     * @param time     some time
+     * @return true if all nodes exist before the end time
+     */
+    public boolean waitUntilExistsAll(Collection<String> paths, TimeUnit timeUnit, long time) {
+        long deadline = System.currentTimeMillis() + timeUnit.toMillis(time);
+        return awaitExists(paths, true, deadline).size() == new HashSet<String>(paths).size();
+    }
+
+    ZkExistsWaiters getExistsWaiters() {
+        return _existsWaiters;
+    }
+
+    /**
+     * Check the missing paths with watches and sleep until an event of one of them, until all
+     * (or any) exist. Waiting threads neither hold the event lock nor wake up for other paths.
+     *
+     * @return the paths found to exist
+     */
+    private List<String> awaitExists(Collection<String> paths, boolean all, long deadline) {
+        Set<String> missing = new LinkedHashSet<String>(paths);
+        List<String> existing = new ArrayList<String>();
+        while (true) {
+            final List<String> check = new ArrayList<String>(missing);
+            CountDownLatch signal = new CountDownLatch(1);
+            // registered before checking, so an event after the check is not missed
+            for (String path : check) {
+                _existsWaiters.register(path, signal);
+            }
+            try {
+                List<ZkFuture<Boolean>> exists = sendAll(check, DEFAULT_MAX_IN_FLIGHT, new PathRequest<Boolean>() {
+
+                    @Override
+                    public ZkFuture<Boolean> send(String path) {
+                        return existsAsync(path, true);
+                    }
+                });
+                for (int i = 0; i < check.size(); i++) {
+                    if (exists.get(i).getResult()) {
+                        existing.add(check.get(i));
+                        missing.remove(check.get(i));
+                    }
+                }
+                if (all ? missing.isEmpty() : !existing.isEmpty()) {
+                    return existing;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0 || !signal.await(remaining, TimeUnit.MILLISECONDS)) {
+                    return existing;
+                }
+            } catch (InterruptedException e) {
+                throw new ZkInterruptedException(e);
+            } finally {
+                for (String path : check) {
+                    _existsWaiters.unregister(path, signal);
                 }
             }
-            return true;
-        } catch (InterruptedException e) {
-            throw new ZkInterruptedException(e);
-        } finally {
-            getEventLock().unlock();
         }
     }
 
@@ -549,36 +1035,58 @@ public class ZkClient implements Watcher, IZkClient {
         if (_zookeeperEventThread != null && Thread.currentThread() == _zookeeperEventThread) {
             throw new IllegalArgumentException("Must not be done in the zookeeper event thread.");
         }
-        Date timeout = new Date(System.currentTimeMillis() + timeUnit.toMillis(time));
-
         LOG.debug("Waiting for keeper state " + keeperState);
-        acquireEventLock();
         try {
-            boolean stillWaiting = true;
-            while (_currentState != keeperState) {
-                if (!stillWaiting) {
-                    return false;
-                }
-                stillWaiting = getEventLock().getStateChangedCondition().awaitUntil(timeout);
-            }
-            LOG.debug("State is " + _currentState);
+            _currentState.await(keeperState).get(time, timeUnit);
+            LOG.debug("State is " + keeperState);
             return true;
         } catch (InterruptedException e) {
             throw new ZkInterruptedException(e);
-        } finally {
-            getEventLock().unlock();
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            // closed
+            return false;
         }
     }
 
-    private void acquireEventLock() {
-        try {
-            getEventLock().lockInterruptibly();
-        } catch (InterruptedException e) {
-            throw new ZkInterruptedException(e);
-        }
+    /**
+     * Wait for the state without blocking a thread.
+     *
+     * @param keeperState the state
+     * @return future completed once the client is in the state, failed if the client is closed before
+     */
+    public ZkFuture<KeeperState> awaitKeeperState(KeeperState keeperState) {
+        final ZkFuture<KeeperState> future = new ZkFuture<KeeperState>();
+        // a future per caller, so cancelling it does not affect other waiters
+        _currentState.await(keeperState).addListener(new IZkFutureListener<KeeperState>() {
+
+            @Override
+            public void operationComplete(ZkFuture<KeeperState> state) throws Exception {
+                if (state.isSuccess()) {
+                    future.set(state.getResult());
+                } else {
+                    future.setException(state.getCause());
+                }
+            }
+        });
+        return future;
     }
 
     /**
+     * Wait for the connected state without blocking a thread.
+     *
+     * @return future completed once the client is connected
+     * @see #awaitKeeperState(KeeperState)
+     */
+    public ZkFuture<KeeperState> awaitConnected() {
+        return awaitKeeperState(KeeperState.SyncConnected);
+    }
+
+    /**
+     * Call the callable, retrying on a connection loss or an expired session as the retry policy
+     * of the client says.
+     *
      * @param callable the callable object
      * @param <E> the runtime type of result
      * @return result of Callable
@@ -586,24 +1094,38 @@ public class ZkClient implements Watcher, IZkClient {
      *                                  got interrupted
      * @throws IllegalArgumentException if called from anything except the ZooKeeper event
      *                                  thread
+     * @throws ZkTimeoutException       if the retry policy gave up
      * @throws ZkException              if any ZooKeeper exception occurred
      * @throws RuntimeException         if any other exception occurs from invoking the Callable
      */
     public <E> E retryUntilConnected(Callable<E> callable) {
+        return retryUntilConnected(callable, _retryPolicy);
+    }
+
+    /**
+     * Call the callable, retrying on a connection loss or an expired session as the policy says.
+     *
+     * @param callable the callable object
+     * @param policy   the retry policy for this call
+     * @param <E>      the runtime type of result
+     * @return result of Callable
+     * @throws ZkTimeoutException if the policy gave up
+     * @see #retryUntilConnected(Callable)
+     */
+    public <E> E retryUntilConnected(Callable<E> callable, ZkRetryPolicy policy) {
         if (_zookeeperEventThread != null && Thread.currentThread() == _zookeeperEventThread) {
             throw new IllegalArgumentException("Must not be done in the zookeeper event thread.");
         }
+        checkCircuit();
+        final long startTime = System.currentTimeMillis();
+        int retries = 0;
         while (true) {
             try {
                 return callable.call();
             } catch (ConnectionLossException e) {
-                // we give the event thread some time to update the status to 'Disconnected'
-                Thread.yield();
-                waitUntilConnected();
+                awaitRetry(policy, ++retries, startTime, e);
             } catch (SessionExpiredException e) {
-                // we give the event thread some time to update the status to 'Expired'
-                Thread.yield();
-                waitUntilConnected();
+                awaitRetry(policy, ++retries, startTime, e);
             } catch (KeeperException e) {
                 throw ZkException.create(e);
             } catch (InterruptedException e) {
@@ -614,13 +1136,210 @@ public class ZkClient implements Watcher, IZkClient {
         }
     }
 
-    public void setCurrentState(KeeperState currentState) {
-        getEventLock().lock();
+    /**
+     * Sleep the delay of the policy and wait until the client is connected again.
+     *
+     * @throws ZkTimeoutException if the policy gives up
+     */
+    private void awaitRetry(ZkRetryPolicy policy, int retries, long startTime, KeeperException cause) {
+        checkCircuit();
+        long delay = policy.getDelayMillis(retries, System.currentTimeMillis() - startTime);
+        if (delay < 0) {
+            throw new ZkTimeoutException("Gave up after " + retries + " attempts in "
+                    + (System.currentTimeMillis() - startTime) + " ms with " + policy, cause);
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                throw new ZkInterruptedException(e);
+            }
+        } else {
+            // we give the event thread some time to update the status to 'Disconnected' or 'Expired'
+            Thread.yield();
+        }
+        // if not connected in time the next attempt fails and the policy or the circuit breaker gives up
+        long maxWait = policy.getMaxWaitMillis(System.currentTimeMillis() - startTime);
+        waitUntilConnected(getCircuitWaitMillis(maxWait), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fail operations at once while the client is disconnected longer than a grace period, instead
+     * of letting them wait for the connection.
+     * <p>
+     * When the client is connected again the breaker sends a probe request first and closes only
+     * if it succeeds; a failed probe is repeated after the probe interval. Listeners implementing
+     * {@link IZkCircuitListener} are told about the state of the breaker.
+     * </p>
+     * <p>
+     * Disabled by default.
+     * </p>
+     *
+     * @param gracePeriodMillis   how long operations wait for the connection, or a negative value to
+     *                            disable the breaker
+     * @param probeIntervalMillis the time between two probe requests while the probes fail
+     * @param serveFromCache      true to answer reads of the read cache with the last known data
+     *                            while the breaker is open
+     * @see ZkCircuitOpenException
+     * @see #setReadCache(int, long, ZkReadCachePolicy)
+     */
+    public void setCircuitBreaker(long gracePeriodMillis, long probeIntervalMillis, boolean serveFromCache) {
+        ZkCircuitBreaker old = _circuitBreaker;
+        if (old != null) {
+            old.close();
+        }
+        ZkCircuitBreaker breaker = null;
+        if (gracePeriodMillis >= 0) {
+            breaker = new ZkCircuitBreaker(this, _connection.getServers(), gracePeriodMillis, probeIntervalMillis,
+                    serveFromCache);
+            if (!isConnected()) {
+                breaker.disconnected();
+            }
+        }
+        _circuitBreaker = breaker;
+    }
+
+    /**
+     * Group independent writes into multi transactions, trading a few milliseconds of latency for
+     * fewer round-trips.
+     * <p>
+     * Writes are batched only if sent through {@link #getBatchWriter()}. A replaced writer sends
+     * its waiting writes and rejects new ones. Disabled by default.
+     * </p>
+     *
+     * @param maxOps       the maximum number of operations of a batch, or 0 to disable the writer
+     * @param maxBytes     the maximum estimated size of a batch, at most 'jute.maxbuffer'
+     * @param lingerMillis how long the first write of a batch waits for more writes
+     * @see ZkBatchWriter
+     */
+    public void setBatchWriter(int maxOps, int maxBytes, long lingerMillis) {
+        ZkBatchWriter old = _batchWriter;
+        _batchWriter = maxOps > 0 ? new ZkBatchWriter(this, _connection.getServers(), maxOps, maxBytes, lingerMillis) : null;
+        if (old != null) {
+            old.close();
+        }
+    }
+
+    /**
+     * @return the batch writer, or null if disabled
+     * @see #setBatchWriter(int, int, long)
+     */
+    public ZkBatchWriter getBatchWriter() {
+        return _batchWriter;
+    }
+
+    /**
+     * @return the state of the circuit breaker, always closed if disabled
+     */
+    public ZkCircuitState getCircuitState() {
+        ZkCircuitBreaker breaker = _circuitBreaker;
+        return breaker != null ? breaker.getState() : ZkCircuitState.CLOSED;
+    }
+
+    /**
+     * @return the state and counters of the circuit breaker
+     */
+    public ZkCircuitStats getCircuitStats() {
+        ZkCircuitBreaker breaker = _circuitBreaker;
+        return breaker != null ? breaker.getStats() : ZkCircuitStats.DISABLED;
+    }
+
+    /**
+     * @throws ZkCircuitOpenException if the circuit breaker does not let operations through
+     */
+    void checkCircuit() {
+        ZkCircuitBreaker breaker = _circuitBreaker;
+        if (breaker != null && !isInternalCall()) {
+            breaker.check();
+        }
+    }
+
+    /**
+     * @return the time to wait for the connection at most, bounded by the grace period of the circuit breaker
+     */
+    long getCircuitWaitMillis(long maxWaitMillis) {
+        ZkCircuitBreaker breaker = _circuitBreaker;
+        return breaker != null && !isInternalCall() ? breaker.getMaxWaitMillis(maxWaitMillis) : maxWaitMillis;
+    }
+
+    /**
+     * Let the calls of the current thread through the circuit breaker, until
+     * {@link #endInternalCall(boolean)}. Watches must be re-armed and caches loaded while the
+     * breaker is half open, else the listeners miss the changes made while it was open.
+     *
+     * @return the previous state, to be passed to {@link #endInternalCall(boolean)}
+     */
+    boolean beginInternalCall() {
+        boolean internal = isInternalCall();
+        _internalCall.set(Boolean.TRUE);
+        return internal;
+    }
+
+    void endInternalCall(boolean internal) {
+        if (!internal) {
+            _internalCall.remove();
+        }
+    }
+
+    boolean isInternalCall() {
+        return _internalCall.get() != null;
+    }
+
+    /**
+     * @return true if a request to the server succeeds
+     */
+    boolean probeConnection() {
         try {
-            _currentState = currentState;
-        } finally {
-            getEventLock().unlock();
+            _connection.exists("/", false);
+            return true;
+        } catch (KeeperException e) {
+            LOG.debug("Probe failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    void fireCircuitStateChanged(final ZkCircuitState state) {
+        ZkEventDispatcher dispatcher = _eventDispatcher;
+        if (dispatcher == null) {
+            return;
+        }
+        for (final IZkStateListener stateListener : _stateListener) {
+            if (stateListener instanceof IZkCircuitListener) {
+                dispatcher.send(new ZkEvent("Circuit breaker " + state + " sent to " + stateListener) {
+
+                    @Override
+                    public void run() throws Exception {
+                        ((IZkCircuitListener) stateListener).handleCircuitStateChanged(state);
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * Set how operations failed with a connection loss or an expired session are retried, the
+     * asynchronous ones included.
+     *
+     * @param policy the retry policy, {@link ZkRetryPolicy#UNTIL_CONNECTED} by default
+     */
+    public void setRetryPolicy(ZkRetryPolicy policy) {
+        if (policy == null) {
+            throw new NullPointerException("policy must not be null.");
         }
+        _retryPolicy = policy;
+    }
+
+    /**
+     * @return the retry policy of the client
+     */
+    public ZkRetryPolicy getRetryPolicy() {
+        return _retryPolicy;
+    }
+
+    public void setCurrentState(KeeperState currentState) {
+        _currentState.set(currentState);
     }
 
     /**
@@ -644,6 +1363,8 @@ public class ZkClient implements Watcher, IZkClient {
                     return null;
                 }
             });
+            _knownPaths.remove(path);
+            invalidateReadCache(path);
 
             return true;
         } catch (ZkNoNodeException e) {
@@ -672,14 +1393,171 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     protected byte[] readData(final String path, final Stat stat, final boolean watch) {
-        byte[] data = retryUntilConnected(new Callable<byte[]>() {
+        ZkReadCache cache = _readCache;
+        if (cache == null || !cache.isCached(path, watch)) {
+            return readData0(path, stat, watch);
+        }
+        ZkData cached = cache.get(path);
+        if (cached != null) {
+            if (stat != null) {
+                ZkClientUtils.copyStat(cached.getStat(), stat);
+            }
+            return cached.getData();
+        }
+        long epoch = cache.epoch(path);
+        Stat readStat = new Stat();
+        byte[] data;
+        try {
+            data = readData0(path, readStat, watch);
+        } catch (ZkCircuitOpenException e) {
+            ZkCircuitBreaker breaker = _circuitBreaker;
+            ZkData stale = breaker != null && breaker.isServingFromCache() ? cache.getStale(path) : null;
+            if (stale == null) {
+                throw e;
+            }
+            breaker.staleRead();
+            if (stat != null) {
+                ZkClientUtils.copyStat(stale.getStat(), stat);
+            }
+            return stale.getData();
+        }
+        cache.put(path, data, readStat, watch, epoch);
+        if (stat != null) {
+            ZkClientUtils.copyStat(readStat, stat);
+        }
+        return data;
+    }
+
+    private byte[] readData0(final String path, final Stat stat, final boolean watch) {
+        return retryUntilConnected(new Callable<byte[]>() {
 
             @Override
             public byte[] call() throws Exception {
                 return _connection.readData(path, stat, watch);
             }
         });
-        return data;
+    }
+
+    public Map<String, ZkData> readData(Collection<String> paths) {
+        return readData(paths, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    public Map<String, ZkData> readData(Collection<String> paths, int maxInFlight) {
+        final List<Stat> stats = new ArrayList<Stat>(paths.size());
+        List<ZkFuture<byte[]>> futures = sendAll(paths, maxInFlight, new PathRequest<byte[]>() {
+
+            @Override
+            public ZkFuture<byte[]> send(String path) {
+                Stat stat = new Stat();
+                stats.add(stat);
+                return readDataAsync(path, stat);
+            }
+        });
+        Map<String, ZkData> result = new LinkedHashMap<String, ZkData>();
+        int index = 0;
+        for (String path : paths) {
+            try {
+                byte[] data = futures.get(index).getResult();
+                result.put(path, new ZkData(data, stats.get(index)));
+            } catch (ZkNoNodeException e) {
+                // missing nodes are not part of the result
+            }
+            index++;
+        }
+        return result;
+    }
+
+    /**
+     * Read the children of many paths with pipelined requests. The children are watched if the path
+     * has listeners.
+     *
+     * @return the children by path, in the order of <code>paths</code>; missing nodes are left out
+     */
+    Map<String, List<String>> getChildren(Collection<String> paths, int maxInFlight) {
+        List<ZkFuture<List<String>>> futures = sendAll(paths, maxInFlight, new PathRequest<List<String>>() {
+
+            @Override
+            public ZkFuture<List<String>> send(String path) {
+                return getChildrenAsync(path);
+            }
+        });
+        Map<String, List<String>> result = new LinkedHashMap<String, List<String>>();
+        int index = 0;
+        for (String path : paths) {
+            List<String> children = futures.get(index++).getResult();
+            if (children != null) {
+                result.put(path, children);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read the stats of many paths with pipelined requests. The nodes are watched if the path has
+     * listeners.
+     *
+     * @return the stats by path, in the order of <code>paths</code>; missing nodes are left out
+     */
+    Map<String, Stat> stat(Collection<String> paths, int maxInFlight) {
+        List<ZkFuture<Stat>> futures = sendAll(paths, maxInFlight, new PathRequest<Stat>() {
+
+            @Override
+            public ZkFuture<Stat> send(String path) {
+                return statAsync(path, hasListeners(path));
+            }
+        });
+        Map<String, Stat> result = new LinkedHashMap<String, Stat>();
+        int index = 0;
+        for (String path : paths) {
+            Stat stat = futures.get(index++).getResult();
+            if (stat != null) {
+                result.put(path, stat);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A request for one path of a pipelined bulk operation.
+     */
+    private interface PathRequest<T> {
+
+        ZkFuture<T> send(String path);
+    }
+
+    /**
+     * Send a request for every path without waiting for the responses, keeping at most
+     * <code>maxInFlight</code> requests unanswered.
+     *
+     * @return the futures in the order of <code>paths</code>
+     */
+    private <T> List<ZkFuture<T>> sendAll(Collection<String> paths, int maxInFlight, PathRequest<T> request) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        if (_zookeeperEventThread != null && Thread.currentThread() == _zookeeperEventThread) {
+            throw new IllegalArgumentException("Must not be done in the zookeeper event thread.");
+        }
+        final Semaphore window = new Semaphore(maxInFlight);
+        final IZkFutureListener<T> release = new IZkFutureListener<T>() {
+
+            @Override
+            public void operationComplete(ZkFuture<T> future) throws Exception {
+                window.release();
+            }
+        };
+        List<ZkFuture<T>> futures = new ArrayList<ZkFuture<T>>(paths.size());
+        for (String path : paths) {
+            try {
+                window.acquire();
+            } catch (InterruptedException e) {
+                throw new ZkInterruptedException(e);
+            }
+            ZkFuture<T> future = request.send(path);
+            future.addListener(release);
+            futures.add(future);
+        }
+        return futures;
     }
 
     public Stat writeData(String path, byte[] object) {
@@ -702,24 +1580,29 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     public Stat writeData(final String path, final byte[] data, final int expectedVersion) {
-        return retryUntilConnected(new Callable<Stat>() {
+        try {
+            return retryUntilConnected(new Callable<Stat>() {
 
-            @Override
-            public Stat call() throws Exception {
-                return _connection.writeData(path, data, expectedVersion);
-            }
-        });
+                @Override
+                public Stat call() throws Exception {
+                    return _connection.writeData(path, data, expectedVersion);
+                }
+            });
+        } finally {
+            // read your own writes, and do not retry a stale version from the cache
+            invalidateReadCache(path);
+        }
     }
 
-    public void watchForData(final String path) {
-        retryUntilConnected(new Callable<Object>() {
+    private void invalidateReadCache(String path) {
+        ZkReadCache cache = _readCache;
+        if (cache != null) {
+            cache.invalidate(path);
+        }
+    }
 
-            @Override
-            public Object call() throws Exception {
-                _connection.exists(path, true);
-                return null;
-            }
-        });
+    public void watchForData(final String path) {
+        exists(path, true);
     }
 
     public List<String> watchForChilds(final String path) {
@@ -743,17 +1626,35 @@ public class ZkClient implements Watcher, IZkClient {
 
 
     public synchronized void connect(final long maxMsToWaitUntilConnected, Watcher watcher) {
-        if (_eventThread != null) {
+        if (_eventDispatcher != null) {
             return;
         }
         boolean started = false;
         try {
             getEventLock().lockInterruptibly();
-            setShutdownTrigger(false);
-            _eventThread = new ZkEventThread(_connection.getServers());
-            _eventThread.start();
-            _connection.connect(watcher);
+            try {
+                setShutdownTrigger(false);
+                _eventDispatcher = new ZkEventDispatcher(_connection.getServers(), _eventThreads);
+                _eventDispatcher.setCoalescing(_eventCoalescing);
+                _eventDispatcher.setCapacity(_eventQueueCapacity, _eventOverflowPolicy, _eventMaxBlockMillis);
+                _eventDispatcher.start();
+                _resyncScheduler = new ZkResyncScheduler(_connection.getServers());
+                _resyncScheduler.setRate(_resyncRate, _resyncMaxStartDelayMillis);
+                _resyncScheduler.start();
+                _asyncRetryExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ZkClient-AsyncRetryThread-" + _connection.getServers());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                _connection.connect(watcher);
+            } finally {
+                getEventLock().unlock();
+            }
 
+            // without the event lock, the event thread takes it to report the connection
             LOG.debug("Awaiting connection to Zookeeper server: " + maxMsToWaitUntilConnected);
             if (!waitUntilConnected(maxMsToWaitUntilConnected, TimeUnit.MILLISECONDS)) {
                 throw new ZkTimeoutException(String.format(
@@ -764,8 +1665,6 @@ public class ZkClient implements Watcher, IZkClient {
             States state = _connection.getZookeeperState();
             throw new IllegalStateException("Not connected with zookeeper server yet. Current state is " + state);
         } finally {
-            getEventLock().unlock();
-
             // we should close the zookeeper instance, otherwise it would keep
             // on trying to connect
             if (!started) {
@@ -775,31 +1674,41 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     public long getCreationTime(String path) {
-        try {
-            getEventLock().lockInterruptibly();
-            return _connection.getCreateTime(path);
-        } catch (KeeperException e) {
-            throw ZkException.create(e);
-        } catch (InterruptedException e) {
-            throw new ZkInterruptedException(e);
-        } finally {
-            getEventLock().unlock();
-        }
+        Stat stat = stat(path, false);
+        return stat != null ? stat.getCtime() : -1;
     }
 
     public synchronized void close() throws ZkInterruptedException {
-        if (_eventThread == null) {
+        if (_eventDispatcher == null) {
             return;
         }
         LOG.debug("Closing ZkClient...");
         getEventLock().lock();
         try {
+            if (_batchWriter != null) {
+                // sent ahead of the close of the session
+                _batchWriter.close();
+            }
             setShutdownTrigger(true);
-            _currentState = null;
-            _eventThread.interrupt();
-            _eventThread.join(2000);
+            _currentState.set(null);
+            _currentState.close();
+            _eventDispatcher.interrupt();
+            _eventDispatcher.join(2000);
+            _resyncScheduler.interrupt();
+            if (_asyncRetryExecutor != null) {
+                _asyncRetryExecutor.shutdownNow();
+            }
+            for (ZkAsyncOperation<?> pending : _pendingRetries) {
+                _pendingRetries.remove(pending);
+                pending.fail(new ZkException("ZkClient was closed"));
+            }
+            if (_circuitBreaker != null) {
+                _circuitBreaker.close();
+            }
             _connection.close();
-            _eventThread = null;
+            _eventDispatcher = null;
+            _resyncScheduler = null;
+            _asyncRetryExecutor = null;
         } catch (InterruptedException e) {
             throw new ZkInterruptedException(e);
         } finally {
@@ -830,10 +1739,10 @@ public class ZkClient implements Watcher, IZkClient {
 
     public int numberOfListeners() {
         int listeners = 0;
-        for (Set<IZkChildListener> childListeners : _childListener.values()) {
+        for (Set<IZkChildListener> childListeners : _childListener.toMap().values()) {
             listeners += childListeners.size();
         }
-        for (Set<IZkDataListener> dataListeners : _dataListener.values()) {
+        for (Set<IZkDataListener> dataListeners : _dataListener.toMap().values()) {
             listeners += dataListeners.size();
         }
         listeners += _stateListener.size();
@@ -842,13 +1751,221 @@ public class ZkClient implements Watcher, IZkClient {
     }
 
     @Override
-    public List<?> multi(final Iterable<?> ops) {
-        return retryUntilConnected(new Callable<List<?>>() {
+    public List<OpResult> multi(final Iterable<Op> ops) {
+        try {
+            return retryUntilConnected(new Callable<List<OpResult>>() {
+                @Override
+                public List<OpResult> call() throws Exception {
+                    return _connection.multi(ops);
+                }
+            });
+        } finally {
+            // read your own writes, like writeData and delete
+            for (Op op : ops) {
+                invalidateCaches(op);
+            }
+        }
+    }
+
+    /**
+     * Forget what the caches of this client know about the path of a written operation.
+     *
+     * @param op the operation
+     */
+    void invalidateCaches(Op op) {
+        if (op.getType() == OpCode.check) {
+            return;
+        }
+        String path = op.getPath();
+        ZkExistenceCache existenceCache = _existenceCache;
+        if (existenceCache != null) {
+            existenceCache.invalidate(path);
+        }
+        invalidateReadCache(path);
+        if (op.getType() == OpCode.delete) {
+            _knownPaths.remove(path);
+        }
+    }
+
+    @Override
+    public ZkTransaction transaction() {
+        return new ZkTransaction(this);
+    }
+
+    /**
+     * Send the operations as one transaction with the callback api.
+     * <p>
+     * A failed transaction completes the future with the exception of the first failed operation.
+     * </p>
+     *
+     * @param ops the operations
+     * @return the results of the operations
+     * @see #multi(Iterable)
+     * @since 2.3
+     */
+    public ZkFuture<List<OpResult>> multiAsync(final List<Op> ops) {
+        if (ops.isEmpty()) {
+            ZkFuture<List<OpResult>> future = new ZkFuture<List<OpResult>>();
+            future.set(new ArrayList<OpResult>());
+            return future;
+        }
+        return new ZkAsyncOperation<List<OpResult>>(this, ops.get(0).getPath()) {
+
             @Override
-            public List<?> call() throws Exception {
-                return _connection.multi(ops);
+            protected void submit(ZkConnection connection) {
+                connection.multi(ops, new MultiCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, List<OpResult> results) {
+                        for (Op op : ops) {
+                            invalidateCaches(op);
+                        }
+                        complete(rc, results);
+                    }
+                }, null);
             }
-        });
+        }.start();
+    }
+
+    /**
+     * Coalesce data and child change events: while an event for a path is not delivered yet, a
+     * newer event for the same path is dropped. The pending event reads the node when it is
+     * delivered, so the listeners still see the latest state, but only once per burst of changes.
+     * <p>
+     * Disabled by default.
+     * </p>
+     *
+     * @param coalescing true to enable coalescing
+     * @see ZkEventStats#getCoalescedEvents()
+     */
+    public void setEventCoalescing(boolean coalescing) {
+        _eventCoalescing = coalescing;
+        ZkEventDispatcher dispatcher = _eventDispatcher;
+        if (dispatcher != null) {
+            dispatcher.setCoalescing(coalescing);
+        }
+    }
+
+    /**
+     * Bound the number of queued data and child change events. After a session expiration all
+     * listeners are notified at once, which may otherwise queue an event for every watched path.
+     * <p>
+     * Unbounded by default.
+     * </p>
+     *
+     * @param capacity       maximal number of queued events, or 0 for no limit
+     * @param policy         what to do with an event when the queue is full
+     * @param maxBlockMillis maximal time the zookeeper event thread is blocked with
+     *                       {@link ZkEventOverflowPolicy#BLOCK}
+     * @see ZkEventStats
+     */
+    public void setEventQueueCapacity(int capacity, ZkEventOverflowPolicy policy, long maxBlockMillis) {
+        if (policy == null) {
+            throw new NullPointerException("policy must not be null.");
+        }
+        _eventQueueCapacity = capacity;
+        _eventOverflowPolicy = policy;
+        _eventMaxBlockMillis = maxBlockMillis;
+        ZkEventDispatcher dispatcher = _eventDispatcher;
+        if (dispatcher != null) {
+            dispatcher.setCapacity(capacity, policy, maxBlockMillis);
+        }
+    }
+
+    /**
+     * @return a snapshot of the listener event counters
+     */
+    public ZkEventStats getEventStats() {
+        ZkEventDispatcher dispatcher = _eventDispatcher;
+        return dispatcher != null ? dispatcher.getStats() : ZkEventStats.EMPTY;
+    }
+
+    /**
+     * Spread the resync of the watched paths after a session expiration. All listeners are notified
+     * and all watches re-armed then, because the watches of the expired session are gone. Without a
+     * rate all paths are resynced at once, which multiplied by many clients is a burst of reads the
+     * ensemble has to serve right after it recovered.
+     * <p>
+     * With a rate the paths are resynced by a background thread in descending
+     * {@link IZkResyncPriority}, starting after a random delay. Listeners of a path not resynced yet
+     * may miss changes until it is.
+     * </p>
+     *
+     * @param pathsPerSecond      average number of paths resynced per second, or 0 to resync all
+     *                            paths at once (the default)
+     * @param maxStartDelayMillis maximal random delay before the resync starts
+     * @see #getResyncStats()
+     */
+    public void setResyncRate(int pathsPerSecond, long maxStartDelayMillis) {
+        _resyncRate = pathsPerSecond;
+        _resyncMaxStartDelayMillis = maxStartDelayMillis;
+        ZkResyncScheduler scheduler = _resyncScheduler;
+        if (scheduler != null) {
+            scheduler.setRate(pathsPerSecond, maxStartDelayMillis);
+        }
+    }
+
+    /**
+     * @return the progress of the last resync after a session expiration
+     */
+    public ZkResyncStats getResyncStats() {
+        ZkResyncScheduler scheduler = _resyncScheduler;
+        return scheduler != null ? scheduler.getStats() : ZkResyncStats.EMPTY;
+    }
+
+    /**
+     * Answer {@link #exists(String)} locally for paths with listeners. The listeners keep a watch on
+     * the path, so the server tells the client when the answer changes; until then the last answer,
+     * including that the node does not exist, is still right. The cache is cleared whenever the
+     * client loses the connection.
+     * <p>
+     * Disabled by default.
+     * </p>
+     *
+     * @param enabled true to enable the cache
+     * @see #getExistenceCacheStats()
+     */
+    public void setExistenceCache(boolean enabled) {
+        _existenceCache = enabled ? new ZkExistenceCache() : null;
+    }
+
+    /**
+     * @return the hits and misses of the existence cache; a miss is any watched exists request sent
+     *         to the server, including the ones re-arming a watch after an event
+     */
+    public ZkCacheStats getExistenceCacheStats() {
+        ZkExistenceCache cache = _existenceCache;
+        return cache != null ? cache.getStats() : new ZkCacheStats(0, 0, 0, 0);
+    }
+
+    /**
+     * Answer {@link #readData(String, Stat)} from a bounded cache for the paths the policy selects.
+     * Entries read with a watch, i.e. of paths with listeners, are kept until the watch fires;
+     * others until the time the policy gives for the path. Writes and deletes through this client
+     * and a lost connection invalidate entries as well. When the cache is full the least recently
+     * used entries are dropped.
+     * <p>
+     * Disabled by default.
+     * </p>
+     *
+     * @param maxEntries maximal number of entries, or 0 to disable the cache
+     * @param maxBytes   maximal number of data bytes over all entries
+     * @param policy     which paths are cached and for how long
+     * @see #getReadCacheStats()
+     */
+    public void setReadCache(int maxEntries, long maxBytes, ZkReadCachePolicy policy) {
+        if (maxEntries > 0 && policy == null) {
+            throw new NullPointerException("policy must not be null.");
+        }
+        _readCache = maxEntries > 0 ? new ZkReadCache(maxEntries, maxBytes, policy) : null;
+    }
+
+    /**
+     * @return the hits, misses and evictions of the read cache
+     */
+    public ZkCacheStats getReadCacheStats() {
+        ZkReadCache cache = _readCache;
+        return cache != null ? cache.getStats() : new ZkCacheStats(0, 0, 0, 0);
     }
 
     @Override
@@ -858,6 +1975,215 @@ public class ZkClient implements Watcher, IZkClient {
 
     @Override
     public boolean isConnected() {
-        return _currentState == KeeperState.SyncConnected;
+        return _currentState.get() == KeeperState.SyncConnected;
+    }
+
+    public ZkFuture<String> createAsync(final String path, final byte[] data, final CreateMode mode) {
+        return new ZkAsyncOperation<String>(this, path) {
+
+            @Override
+            protected void submit(ZkConnection connection) {
+                connection.create(path, data, mode, new StringCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, String name) {
+                        complete(rc, name);
+                    }
+                }, null);
+            }
+        }.start();
+    }
+
+    public ZkFuture<Boolean> deleteAsync(final String path) {
+        return new ZkAsyncOperation<Boolean>(this, path) {
+
+            @Override
+            protected void submit(ZkConnection connection) {
+                connection.delete(path, new VoidCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx) {
+                        if (rc == Code.OK.intValue()) {
+                            _knownPaths.remove(path);
+                            invalidateReadCache(path);
+                        }
+                        complete(rc, Boolean.TRUE);
+                    }
+                }, null);
+            }
+
+            @Override
+            protected boolean recover(Code code) {
+                return code == Code.NONODE && _future.set(Boolean.FALSE);
+            }
+        }.start();
+    }
+
+    public ZkFuture<Boolean> existsAsync(String path) {
+        return existsAsync(path, hasListeners(path));
+    }
+
+    protected ZkFuture<Boolean> existsAsync(final String path, final boolean watch) {
+        return new ZkAsyncOperation<Boolean>(this, path) {
+
+            @Override
+            protected void submit(ZkConnection connection) {
+                connection.exists(path, watch, new StatCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, Stat stat) {
+                        complete(rc, Boolean.TRUE);
+                    }
+                }, null);
+            }
+
+            @Override
+            protected boolean recover(Code code) {
+                return code == Code.NONODE && _future.set(Boolean.FALSE);
+            }
+        }.start();
+    }
+
+    /**
+     * @return future of the stat, or null if the node does not exist
+     */
+    ZkFuture<Stat> statAsync(final String path, final boolean watch) {
+        return new ZkAsyncOperation<Stat>(this, path) {
+
+            @Override
+            protected void submit(ZkConnection connection) {
+                connection.exists(path, watch, new StatCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, Stat stat) {
+                        complete(rc, stat);
+                    }
+                }, null);
+            }
+
+            @Override
+            protected boolean recover(Code code) {
+                return code == Code.NONODE && _future.set(null);
+            }
+        }.start();
+    }
+
+    public ZkFuture<List<String>> getChildrenAsync(String path) {
+        return getChildrenAsync(path, hasListeners(path));
+    }
+
+    protected ZkFuture<List<String>> getChildrenAsync(final String path, final boolean watch) {
+        return new ZkAsyncOperation<List<String>>(this, path) {
+
+            @Override
+            protected void submit(ZkConnection connection) {
+                connection.getChildren(path, watch, new ChildrenCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, List<String> children) {
+                        complete(rc, children);
+                    }
+                }, null);
+            }
+
+            @Override
+            protected boolean recover(Code code) {
+                return code == Code.NONODE && _future.set(null);
+            }
+        }.start();
+    }
+
+    public ZkFuture<byte[]> readDataAsync(String path) {
+        return readDataAsync(path, null);
+    }
+
+    public ZkFuture<byte[]> readDataAsync(final String path, final Stat stat) {
+        final boolean watch = hasListeners(path);
+        return new ZkAsyncOperation<byte[]>(this, path) {
+
+            @Override
+            protected void submit(ZkConnection connection) {
+                connection.readData(path, watch, new DataCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, byte[] data, Stat s) {
+                        if (stat != null && s != null) {
+                            ZkClientUtils.copyStat(s, stat);
+                        }
+                        complete(rc, data);
+                    }
+                }, null);
+            }
+        }.start();
+    }
+
+    public ZkFuture<Stat> writeDataAsync(String path, byte[] data) {
+        return writeDataAsync(path, data, -1);
+    }
+
+    public ZkFuture<Stat> writeDataAsync(final String path, final byte[] data, final int expectedVersion) {
+        return new ZkAsyncOperation<Stat>(this, path) {
+
+            @Override
+            protected void submit(ZkConnection connection) {
+                connection.writeData(path, data, expectedVersion, new StatCallback() {
+
+                    @Override
+                    public void processResult(int rc, String p, Object ctx, Stat stat) {
+                        invalidateReadCache(path);
+                        complete(rc, stat);
+                    }
+                }, null);
+            }
+        }.start();
+    }
+
+    /**
+     * Run the task on the async retry thread after the delay.
+     *
+     * @return false if the client is closed
+     */
+    boolean scheduleAsync(Runnable task, long delayMillis) {
+        ScheduledExecutorService executor = _asyncRetryExecutor;
+        if (executor == null || getShutdownTrigger()) {
+            return false;
+        }
+        try {
+            executor.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Hand an asynchronous operation which failed with a connection loss or an expired session to
+     * the retry thread. The zookeeper event thread must never wait for the reconnection itself.
+     *
+     * @param operation   the operation to send again
+     * @param delayMillis the delay before the operation is sent again, or waits for the connection
+     */
+    void retryAsync(final ZkAsyncOperation<?> operation, long delayMillis) {
+        ScheduledExecutorService executor = _asyncRetryExecutor;
+        if (executor == null || getShutdownTrigger()) {
+            operation.fail(new ZkException("ZkClient was closed"));
+            return;
+        }
+        // the executor hands out wrappers of the scheduled tasks, so close() fails the pending ones from here
+        _pendingRetries.add(operation);
+        try {
+            executor.schedule(new Runnable() {
+
+                @Override
+                public void run() {
+                    if (_pendingRetries.remove(operation)) {
+                        operation.run();
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            _pendingRetries.remove(operation);
+            operation.fail(new ZkException("ZkClient was closed"));
+        }
     }
 }
@@ -0,0 +1,485 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.exception.ZkInterruptedException;
+import com.github.zkclient.exception.ZkNoNodeException;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A client spreading the requests over several zookeeper sessions.
+ * <p>
+ * One session sends its requests over one socket and the server handles them one by one, which
+ * limits the throughput of a busy process. The pool owns a {@link ZkClient} per session and routes
+ * every operation by the hash of its path, so all operations and watches of a path use the same
+ * session and keep their order. Ephemeral nodes live as long as the session of their path.
+ * </p>
+ * <p>
+ * Operations on different paths may use different sessions and are not ordered. A session may be
+ * connected to a server lagging behind the one of another session, so a node created through the
+ * pool is not necessarily visible to a read of another path right away.
+ * </p>
+ * <p>
+ * With {@link #setRoundRobinReads(boolean)} the reads are spread over all sessions instead. This
+ * gives up reading your own writes, even for the same path.
+ * </p>
+ *
+ * @see ZkClient
+ * @since 2.3
+ */
+public class ZkClientPool implements IZkClient, IZkAsyncClient {
+
+    private final ZkClient[] _clients;
+
+    private final AtomicInteger _next = new AtomicInteger();
+
+    private volatile boolean _roundRobinReads;
+
+    public ZkClientPool(String connectString, int sessions) {
+        this(connectString, DEFAULT_SESSION_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT, sessions);
+    }
+
+    /**
+     * Create the sessions and wait until all are connected.
+     *
+     * @param connectString     comma separated host:port pairs, each corresponding to a zookeeper server
+     * @param sessionTimeout    session timeout in milliseconds
+     * @param connectionTimeout connection timeout in milliseconds
+     * @param sessions          number of sessions
+     */
+    public ZkClientPool(String connectString, int sessionTimeout, int connectionTimeout, int sessions) {
+        if (sessions <= 0) {
+            throw new IllegalArgumentException("sessions must be positive: " + sessions);
+        }
+        _clients = new ZkClient[sessions];
+        try {
+            for (int i = 0; i < sessions; i++) {
+                _clients[i] = new ZkClient(connectString, sessionTimeout, connectionTimeout);
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Spread the reads round-robin over all sessions instead of routing them by path.
+     * <p>
+     * Disabled by default. Reads through another session than the one of the path neither set
+     * watches nor see the writes of the pool before that session catches up.
+     * </p>
+     *
+     * @param roundRobinReads true to spread the reads
+     */
+    public void setRoundRobinReads(boolean roundRobinReads) {
+        _roundRobinReads = roundRobinReads;
+    }
+
+    /**
+     * @param path the path for the node
+     * @return the client of the session the path is routed to
+     */
+    public ZkClient getClient(String path) {
+        if (path == null) {
+            throw new NullPointerException("path must not be null.");
+        }
+        return _clients[(path.hashCode() & Integer.MAX_VALUE) % _clients.length];
+    }
+
+    /**
+     * @return the clients of all sessions
+     */
+    public List<ZkClient> getClients() {
+        return Collections.unmodifiableList(Arrays.asList(_clients));
+    }
+
+    private ZkClient readClient(String path) {
+        return _clients[readIndex(path)];
+    }
+
+    private int readIndex(String path) {
+        if (_roundRobinReads) {
+            return (_next.getAndIncrement() & Integer.MAX_VALUE) % _clients.length;
+        }
+        return (path.hashCode() & Integer.MAX_VALUE) % _clients.length;
+    }
+
+    @Override
+    public void close() {
+        for (ZkClient client : _clients) {
+            if (client != null) {
+                client.close();
+            }
+        }
+    }
+
+    @Override
+    public void connect(long timeout, Watcher watcher) {
+        for (ZkClient client : _clients) {
+            client.connect(timeout, watcher);
+        }
+    }
+
+    @Override
+    public int countChildren(String path) {
+        return readClient(path).countChildren(path);
+    }
+
+    @Override
+    public String create(String path, byte[] data, CreateMode mode) {
+        return getClient(path).create(path, data, mode);
+    }
+
+    @Override
+    public void createEphemeral(String path) {
+        getClient(path).createEphemeral(path);
+    }
+
+    @Override
+    public void createEphemeral(String path, byte[] data) {
+        getClient(path).createEphemeral(path, data);
+    }
+
+    @Override
+    public String createEphemeralSequential(String path, byte[] data) {
+        return getClient(path).createEphemeralSequential(path, data);
+    }
+
+    @Override
+    public void createPersistent(String path) {
+        getClient(path).createPersistent(path);
+    }
+
+    @Override
+    public void createPersistent(String path, boolean createParents) {
+        getClient(path).createPersistent(path, createParents);
+    }
+
+    @Override
+    public void createPersistent(String path, byte[] data) {
+        getClient(path).createPersistent(path, data);
+    }
+
+    @Override
+    public String createPersistentSequential(String path, byte[] data) {
+        return getClient(path).createPersistentSequential(path, data);
+    }
+
+    @Override
+    public boolean delete(String path) {
+        return getClient(path).delete(path);
+    }
+
+    @Override
+    public boolean deleteRecursive(String path) {
+        return getClient(path).deleteRecursive(path);
+    }
+
+    @Override
+    public boolean deleteRecursive(String path, int maxInFlight, ProgressListener listener) {
+        return getClient(path).deleteRecursive(path, maxInFlight, listener);
+    }
+
+    @Override
+    public boolean exists(String path) {
+        return readClient(path).exists(path);
+    }
+
+    @Override
+    public List<String> getChildren(String path) {
+        return readClient(path).getChildren(path);
+    }
+
+    @Override
+    public Stat stat(String path) {
+        return readClient(path).stat(path);
+    }
+
+    @Override
+    public long getCreationTime(String path) {
+        return readClient(path).getCreationTime(path);
+    }
+
+    @Override
+    public int numberOfListeners() {
+        int listeners = 0;
+        for (ZkClient client : _clients) {
+            listeners += client.numberOfListeners();
+        }
+        return listeners;
+    }
+
+    @Override
+    public byte[] readData(String path) {
+        return readClient(path).readData(path);
+    }
+
+    @Override
+    public byte[] readData(String path, boolean returnNullIfPathNotExists) {
+        return readClient(path).readData(path, returnNullIfPathNotExists);
+    }
+
+    @Override
+    public byte[] readData(String path, Stat stat) {
+        return readClient(path).readData(path, stat);
+    }
+
+    @Override
+    public Map<String, ZkData> readData(Collection<String> paths) {
+        return readData(paths, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * Read many nodes with pipelined requests on all sessions at once.
+     *
+     * @param paths       the paths for the nodes
+     * @param maxInFlight the maximal number of unanswered requests per session
+     * @return the data and stats by path, in the order of <code>paths</code>; missing nodes are left out
+     */
+    @Override
+    public Map<String, ZkData> readData(Collection<String> paths, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        // one window per session, so a session with many of the paths cannot take the others' share
+        List<IZkFutureListener<byte[]>> releases = new ArrayList<IZkFutureListener<byte[]>>(_clients.length);
+        Semaphore[] windows = new Semaphore[_clients.length];
+        for (int i = 0; i < _clients.length; i++) {
+            final Semaphore window = new Semaphore(maxInFlight);
+            windows[i] = window;
+            releases.add(new IZkFutureListener<byte[]>() {
+
+                @Override
+                public void operationComplete(ZkFuture<byte[]> future) throws Exception {
+                    window.release();
+                }
+            });
+        }
+        List<ZkFuture<byte[]>> futures = new ArrayList<ZkFuture<byte[]>>(paths.size());
+        List<Stat> stats = new ArrayList<Stat>(paths.size());
+        for (String path : paths) {
+            int client = readIndex(path);
+            try {
+                windows[client].acquire();
+            } catch (InterruptedException e) {
+                throw new ZkInterruptedException(e);
+            }
+            Stat stat = new Stat();
+            ZkFuture<byte[]> future = _clients[client].readDataAsync(path, stat);
+            future.addListener(releases.get(client));
+            futures.add(future);
+            stats.add(stat);
+        }
+        Map<String, ZkData> result = new LinkedHashMap<String, ZkData>();
+        int index = 0;
+        for (String path : paths) {
+            try {
+                result.put(path, new ZkData(futures.get(index).getResult(), stats.get(index)));
+            } catch (ZkNoNodeException e) {
+                // missing nodes are not part of the result
+            }
+            index++;
+        }
+        return result;
+    }
+
+    @Override
+    public List<String> subscribeChildChanges(String path, IZkChildListener listener) {
+        return getClient(path).subscribeChildChanges(path, listener);
+    }
+
+    @Override
+    public void subscribeDataChanges(String path, IZkDataListener listener) {
+        getClient(path).subscribeDataChanges(path, listener);
+    }
+
+    /**
+     * Subscribe to the state changes of all sessions. The listener is notified for each session on
+     * its own, e.g. once per session when the connection to the ensemble is lost.
+     */
+    @Override
+    public void subscribeStateChanges(IZkStateListener listener) {
+        for (ZkClient client : _clients) {
+            client.subscribeStateChanges(listener);
+        }
+    }
+
+    @Override
+    public void unsubscribeAll() {
+        for (ZkClient client : _clients) {
+            client.unsubscribeAll();
+        }
+    }
+
+    @Override
+    public void unsubscribeChildChanges(String path, IZkChildListener childListener) {
+        getClient(path).unsubscribeChildChanges(path, childListener);
+    }
+
+    @Override
+    public void unsubscribeDataChanges(String path, IZkDataListener dataListener) {
+        getClient(path).unsubscribeDataChanges(path, dataListener);
+    }
+
+    @Override
+    public void unsubscribeStateChanges(IZkStateListener stateListener) {
+        for (ZkClient client : _clients) {
+            client.unsubscribeStateChanges(stateListener);
+        }
+    }
+
+    @Override
+    public void cas(String path, DataUpdater updater) {
+        getClient(path).cas(path, updater);
+    }
+
+    /**
+     * @return true if all sessions reach the state before the end time
+     */
+    @Override
+    public boolean waitForKeeperState(KeeperState keeperState, long time, TimeUnit timeUnit) {
+        long deadline = System.currentTimeMillis() + timeUnit.toMillis(time);
+        for (ZkClient client : _clients) {
+            long remaining = Math.max(0, deadline - System.currentTimeMillis());
+            if (!client.waitForKeeperState(keeperState, remaining, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean waitUntilConnected() throws ZkInterruptedException {
+        return waitUntilConnected(Integer.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean waitUntilConnected(long time, TimeUnit timeUnit) {
+        return waitForKeeperState(KeeperState.SyncConnected, time, timeUnit);
+    }
+
+    @Override
+    public boolean waitUntilExists(String path, TimeUnit timeUnit, long time) {
+        return getClient(path).waitUntilExists(path, timeUnit, time);
+    }
+
+    @Override
+    public Stat writeData(String path, byte[] data) {
+        return getClient(path).writeData(path, data);
+    }
+
+    @Override
+    public Stat writeData(String path, byte[] data, int expectedVersion) {
+        return getClient(path).writeData(path, data, expectedVersion);
+    }
+
+    /**
+     * The operations of a transaction may have different paths, so transactions always use the
+     * session of the first client.
+     */
+    @Override
+    public List<OpResult> multi(Iterable<Op> ops) {
+        return _clients[0].multi(ops);
+    }
+
+    @Override
+    public ZkTransaction transaction() {
+        return _clients[0].transaction();
+    }
+
+    /**
+     * @return the zookeeper client of the first session
+     */
+    @Override
+    public ZooKeeper getZooKeeper() {
+        return _clients[0].getZooKeeper();
+    }
+
+    /**
+     * @return true if all sessions are connected
+     */
+    @Override
+    public boolean isConnected() {
+        for (ZkClient client : _clients) {
+            if (!client.isConnected()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public ZkFuture<String> createAsync(String path, byte[] data, CreateMode mode) {
+        return getClient(path).createAsync(path, data, mode);
+    }
+
+    @Override
+    public ZkFuture<Boolean> deleteAsync(String path) {
+        return getClient(path).deleteAsync(path);
+    }
+
+    @Override
+    public ZkFuture<Boolean> existsAsync(String path) {
+        return readClient(path).existsAsync(path);
+    }
+
+    @Override
+    public ZkFuture<List<String>> getChildrenAsync(String path) {
+        return readClient(path).getChildrenAsync(path);
+    }
+
+    @Override
+    public ZkFuture<byte[]> readDataAsync(String path) {
+        return readClient(path).readDataAsync(path);
+    }
+
+    @Override
+    public ZkFuture<byte[]> readDataAsync(String path, Stat stat) {
+        return readClient(path).readDataAsync(path, stat);
+    }
+
+    @Override
+    public ZkFuture<Stat> writeDataAsync(String path, byte[] data) {
+        return getClient(path).writeDataAsync(path, data);
+    }
+
+    @Override
+    public ZkFuture<Stat> writeDataAsync(String path, byte[] data, int expectedVersion) {
+        return getClient(path).writeDataAsync(path, data, expectedVersion);
+    }
+
+    @Override
+    public String toString() {
+        return "ZkClientPool[sessions=" + _clients.length + "]";
+    }
+}
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.net.*;
 
 import com.github.zkclient.exception.ZkInterruptedException;
+import org.apache.zookeeper.data.Stat;
 
 public class ZkClientUtils {
 
@@ -76,6 +77,26 @@ public class ZkClientUtils {
         }
     }
 
+    /**
+     * Copy all fields of a {@link Stat}.
+     *
+     * @param from the source stat
+     * @param to   the target stat
+     */
+    public static void copyStat(Stat from, Stat to) {
+        to.setCzxid(from.getCzxid());
+        to.setMzxid(from.getMzxid());
+        to.setCtime(from.getCtime());
+        to.setMtime(from.getMtime());
+        to.setVersion(from.getVersion());
+        to.setCversion(from.getCversion());
+        to.setAversion(from.getAversion());
+        to.setEphemeralOwner(from.getEphemeralOwner());
+        to.setDataLength(from.getDataLength());
+        to.setNumChildren(from.getNumChildren());
+        to.setPzxid(from.getPzxid());
+    }
+
     public static String leadingZeros(long number, int numberOfLeadingZeros) {
         return String.format("%0" + numberOfLeadingZeros + "d", number);
     }
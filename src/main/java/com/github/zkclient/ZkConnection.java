@@ -16,14 +16,20 @@
 package com.github.zkclient;
 
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.List;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+import org.apache.zookeeper.AsyncCallback.ChildrenCallback;
+import org.apache.zookeeper.AsyncCallback.DataCallback;
+import org.apache.zookeeper.AsyncCallback.MultiCallback;
+import org.apache.zookeeper.AsyncCallback.StatCallback;
+import org.apache.zookeeper.AsyncCallback.StringCallback;
+import org.apache.zookeeper.AsyncCallback.VoidCallback;
 import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
 import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.ZooDefs.Ids;
@@ -44,20 +50,6 @@ public class ZkConnection {
     private final String _servers;
     private final int _sessionTimeOut;
 
-    private static final Method method;
-
-    static {
-        Method[] methods = ZooKeeper.class.getDeclaredMethods();
-        Method m = null;
-        for (Method method : methods) {
-            if (method.getName().equals("multi")) {
-                m = method;
-                break;
-            }
-        }
-        method = m;
-    }
-
     /**
      * build a zookeeper connection
      * @param zkServers      zookeeper connection string
@@ -110,6 +102,13 @@ public class ZkConnection {
         return _zk.exists(path, watch) != null;
     }
 
+    /**
+     * @return the stat of the node or null if the node does not exist
+     */
+    public Stat stat(String path, boolean watch) throws KeeperException, InterruptedException {
+        return _zk.exists(path, watch);
+    }
+
     public List<String> getChildren(final String path, final boolean watch) throws KeeperException, InterruptedException {
         return _zk.getChildren(path, watch);
     }
@@ -118,24 +117,44 @@ public class ZkConnection {
         return _zk.getData(path, watch, stat);
     }
 
+    public void create(String path, byte[] data, CreateMode mode, StringCallback cb, Object ctx) {
+        _zk.create(path, data, Ids.OPEN_ACL_UNSAFE, mode, cb, ctx);
+    }
+
+    public void delete(String path, VoidCallback cb, Object ctx) {
+        _zk.delete(path, -1, cb, ctx);
+    }
+
+    public void exists(String path, boolean watch, StatCallback cb, Object ctx) {
+        _zk.exists(path, watch, cb, ctx);
+    }
+
+    public void getChildren(String path, boolean watch, ChildrenCallback cb, Object ctx) {
+        _zk.getChildren(path, watch, cb, ctx);
+    }
+
+    public void readData(String path, boolean watch, DataCallback cb, Object ctx) {
+        _zk.getData(path, watch, cb, ctx);
+    }
+
+    public void writeData(String path, byte[] data, int version, StatCallback cb, Object ctx) {
+        _zk.setData(path, data, version, cb, ctx);
+    }
+
     /**
-     * wrapper for 3.3.x/3.4.x
+     * execute the operations in one transaction
      *
      * @param ops multi operations
      * @return OpResult list
+     * @throws KeeperException      the failure of the first failed operation, with the results of all operations
+     * @throws InterruptedException if the thread was interrupted
      */
-    @SuppressWarnings("unchecked")
-    public List<?> multi(Iterable<?> ops) {
-        if (method == null) throw new UnsupportedOperationException("multi operation must use zookeeper 3.4+");
-        try {
-            return (List<?>) method.invoke(_zk, ops);
-        } catch (IllegalArgumentException e) {
-            throw new UnsupportedOperationException("ops must be 'org.apache.zookeeper.Op'");
-        } catch (IllegalAccessException e) {
-            throw new UnsupportedOperationException(e);
-        } catch (InvocationTargetException e) {
-            throw new RuntimeException(e);
-        }
+    public List<OpResult> multi(Iterable<Op> ops) throws KeeperException, InterruptedException {
+        return _zk.multi(ops);
+    }
+
+    public void multi(Iterable<Op> ops, MultiCallback cb, Object ctx) {
+        _zk.multi(ops, cb, ctx);
     }
 
     public Stat writeData(String path, byte[] data, int version) throws KeeperException, InterruptedException {
@@ -147,7 +166,7 @@ public class ZkConnection {
     }
 
     public long getCreateTime(String path) throws KeeperException, InterruptedException {
-        Stat stat = _zk.exists(path, false);
+        Stat stat = stat(path, false);
         if (stat != null) {
             return stat.getCtime();
         }
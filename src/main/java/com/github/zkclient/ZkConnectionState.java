@@ -0,0 +1,88 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.exception.ZkException;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The connection state of a {@link ZkClient}, readable and awaitable without the event lock.
+ * <p>
+ * A thread waiting for a state gets the future of that state, which the next change to the state
+ * completes. The future is registered before the current state is checked, so a change in between
+ * is never missed.
+ * </p>
+ *
+ * @since 2.3
+ */
+class ZkConnectionState {
+
+    private final AtomicReference<KeeperState> _state = new AtomicReference<KeeperState>();
+
+    private final ConcurrentMap<KeeperState, ZkFuture<KeeperState>> _futures =
+            new ConcurrentHashMap<KeeperState, ZkFuture<KeeperState>>();
+
+    KeeperState get() {
+        return _state.get();
+    }
+
+    void set(KeeperState state) {
+        _state.set(state);
+        if (state != null) {
+            ZkFuture<KeeperState> future = _futures.remove(state);
+            if (future != null) {
+                future.set(state);
+            }
+        }
+    }
+
+    /**
+     * @param state the awaited state
+     * @return a future completed once the client is in the state, shared by all waiters
+     */
+    ZkFuture<KeeperState> await(KeeperState state) {
+        ZkFuture<KeeperState> future = _futures.get(state);
+        if (future == null) {
+            ZkFuture<KeeperState> created = new ZkFuture<KeeperState>();
+            future = _futures.putIfAbsent(state, created);
+            if (future == null) {
+                future = created;
+            }
+        }
+        if (_state.get() == state) {
+            ZkFuture<KeeperState> done = new ZkFuture<KeeperState>();
+            done.set(state);
+            return done;
+        }
+        return future;
+    }
+
+    /**
+     * Fail the futures of all waiters.
+     */
+    void close() {
+        for (KeeperState state : _futures.keySet()) {
+            ZkFuture<KeeperState> future = _futures.remove(state);
+            if (future != null) {
+                future.setException(new ZkException("ZkClient was closed"));
+            }
+        }
+    }
+}
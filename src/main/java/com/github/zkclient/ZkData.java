@@ -0,0 +1,54 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * The data and the stat of a node.
+ *
+ * @since 2.3
+ */
+public class ZkData {
+
+    private final byte[] _data;
+
+    private final Stat _stat;
+
+    public ZkData(byte[] data, Stat stat) {
+        _data = data;
+        _stat = stat;
+    }
+
+    /**
+     * @return the data for the node (maybe null)
+     */
+    public byte[] getData() {
+        return _data;
+    }
+
+    /**
+     * @return the stat for the node
+     */
+    public Stat getStat() {
+        return _stat;
+    }
+
+    @Override
+    public String toString() {
+        return "ZkData[version=" + _stat.getVersion() + ", length=" + (_data != null ? _data.length : -1) + "]";
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.ZkEventThread.ZkEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads the listener events of a {@link ZkClient} over one or more {@link ZkEventThread}s.
+ * <p>
+ * Events of a znode are hashed by path onto a lane, so they are delivered in order, while a slow
+ * listener only delays the paths sharing its lane. Events without a path (state changes and new
+ * sessions) always use the first lane and therefore keep their order too.
+ * </p>
+ * <p>
+ * With coalescing enabled an event is dropped if an event with the same coalesce key is still
+ * waiting for delivery. The pending event reads the state of the node when it runs, so the
+ * listeners still see the latest state, only once.
+ * </p>
+ * <p>
+ * The number of queued events over all lanes may be bounded. Events without a coalesce key are
+ * never held back; what happens to the others is decided by the {@link ZkEventOverflowPolicy}.
+ * A dropped event still parks its {@link ZkEvent#rearm()}, so the watch of the path is reinstalled.
+ * </p>
+ *
+ * @since 2.3
+ */
+class ZkEventDispatcher {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZkEventDispatcher.class);
+
+    private final ZkEventThread[] _lanes;
+
+    private final Set<String> _pending = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /**
+     * events waiting for room in the queue, the latest per coalesce key
+     */
+    private final Map<String, ZkEvent> _overflow = new LinkedHashMap<String, ZkEvent>();
+
+    private final Object _room = new Object();
+
+    private final AtomicInteger _queued = new AtomicInteger();
+
+    private final AtomicInteger _blocked = new AtomicInteger();
+
+    private final AtomicLong _enqueuedEvents = new AtomicLong();
+
+    private final AtomicLong _coalescedEvents = new AtomicLong();
+
+    private final AtomicLong _overflowEvents = new AtomicLong();
+
+    private final AtomicLong _rejectedEvents = new AtomicLong();
+
+    private final AtomicLong _maxWaitNanos = new AtomicLong();
+
+    private volatile boolean _coalescing;
+
+    private volatile int _capacity;
+
+    private volatile ZkEventOverflowPolicy _policy = ZkEventOverflowPolicy.BLOCK;
+
+    private volatile long _maxBlockMillis;
+
+    ZkEventDispatcher(String name, int lanes) {
+        if (lanes <= 0) {
+            throw new IllegalArgumentException("event threads must be positive: " + lanes);
+        }
+        _lanes = new ZkEventThread[lanes];
+        for (int i = 0; i < lanes; i++) {
+            _lanes[i] = new ZkEventThread(lanes == 1 ? name : name + "-" + i) {
+
+                @Override
+                protected void taken(ZkEvent event) {
+                    ZkEventDispatcher.this.taken(event);
+                }
+            };
+        }
+    }
+
+    void start() {
+        for (ZkEventThread lane : _lanes) {
+            lane.start();
+        }
+    }
+
+    void send(ZkEvent event) {
+        final String key = event.getCoalesceKey();
+        if (_coalescing && key != null && !_pending.add(key)) {
+            _coalescedEvents.incrementAndGet();
+            LOG.debug("Coalesced event: " + event);
+            return;
+        }
+        if (key == null) {
+            // state events are never held back
+            _queued.incrementAndGet();
+            enqueue(event);
+            return;
+        }
+        if (reserve()) {
+            enqueue(event);
+            return;
+        }
+        switch (_policy) {
+            case BLOCK:
+                if (awaitRoom()) {
+                    enqueue(event);
+                    return;
+                }
+                park(key, event);
+                return;
+            case COALESCE:
+                park(key, event);
+                return;
+            default:
+                if (_coalescing) {
+                    _pending.remove(key);
+                }
+                _rejectedEvents.incrementAndGet();
+                // never thrown, the zookeeper event thread must go on with the state and lock handling
+                LOG.error("The listener event queue is full (capacity " + _capacity + "), dropped " + event);
+                // the listeners miss the change, but not the ones after it
+                park(key, event.rearmOnly());
+        }
+    }
+
+    private void enqueue(ZkEvent event) {
+        event.setQueuedAt(System.nanoTime());
+        _enqueuedEvents.incrementAndGet();
+        lane(event.getPath()).send(event);
+    }
+
+    private boolean reserve() {
+        while (true) {
+            int capacity = _capacity;
+            int queued = _queued.get();
+            if (capacity > 0 && queued >= capacity) {
+                return false;
+            }
+            if (_queued.compareAndSet(queued, queued + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean awaitRoom() {
+        long deadline = System.currentTimeMillis() + _maxBlockMillis;
+        _blocked.incrementAndGet();
+        try {
+            synchronized (_room) {
+                while (!reserve()) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    _room.wait(remaining);
+                }
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            _blocked.decrementAndGet();
+        }
+    }
+
+    private void park(String key, ZkEvent event) {
+        _overflowEvents.incrementAndGet();
+        synchronized (_overflow) {
+            if (_overflow.put(key, event) != null) {
+                _coalescedEvents.incrementAndGet();
+            }
+        }
+        LOG.warn("The listener event queue is full (capacity " + _capacity + "), parked " + event);
+        // the queue may have drained in between
+        drainOverflow();
+    }
+
+    private void drainOverflow() {
+        while (true) {
+            ZkEvent event;
+            synchronized (_overflow) {
+                if (_overflow.isEmpty() || !reserve()) {
+                    return;
+                }
+                Iterator<ZkEvent> it = _overflow.values().iterator();
+                event = it.next();
+                it.remove();
+            }
+            enqueue(event);
+        }
+    }
+
+    private void taken(ZkEvent event) {
+        String key = event.getCoalesceKey();
+        if (key != null) {
+            // removed before running, so a change seen after this point queues a new event
+            _pending.remove(key);
+        }
+        long wait = System.nanoTime() - event.getQueuedAt();
+        long max;
+        while (wait > (max = _maxWaitNanos.get()) && !_maxWaitNanos.compareAndSet(max, wait)) {
+            // retry
+        }
+        _queued.decrementAndGet();
+        drainOverflow();
+        if (_blocked.get() > 0) {
+            synchronized (_room) {
+                _room.notifyAll();
+            }
+        }
+    }
+
+    void setCoalescing(boolean coalescing) {
+        _coalescing = coalescing;
+        if (!coalescing) {
+            _pending.clear();
+        }
+    }
+
+    void setCapacity(int capacity, ZkEventOverflowPolicy policy, long maxBlockMillis) {
+        if (policy == null) {
+            throw new NullPointerException("policy must not be null.");
+        }
+        _capacity = Math.max(0, capacity);
+        _policy = policy;
+        _maxBlockMillis = maxBlockMillis;
+        drainOverflow();
+    }
+
+    ZkEventStats getStats() {
+        int overflow;
+        synchronized (_overflow) {
+            overflow = _overflow.size();
+        }
+        return new ZkEventStats(_queued.get(), overflow, _enqueuedEvents.get(), _coalescedEvents.get(),
+                _overflowEvents.get(), _rejectedEvents.get(), TimeUnit.NANOSECONDS.toMillis(_maxWaitNanos.get()));
+    }
+
+    private ZkEventThread lane(String path) {
+        if (path == null || _lanes.length == 1) {
+            return _lanes[0];
+        }
+        return _lanes[(path.hashCode() & Integer.MAX_VALUE) % _lanes.length];
+    }
+
+    int getLanes() {
+        return _lanes.length;
+    }
+
+    void interrupt() {
+        for (ZkEventThread lane : _lanes) {
+            lane.interrupt();
+        }
+    }
+
+    void join(long millis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + millis;
+        for (ZkEventThread lane : _lanes) {
+            lane.join(Math.max(1, deadline - System.currentTimeMillis()));
+        }
+    }
+}
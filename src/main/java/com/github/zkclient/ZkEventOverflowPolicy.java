@@ -0,0 +1,48 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * What happens to a data or child change event when the listener event queue of a
+ * {@link ZkClient} is full. State change events are never held back.
+ *
+ * @see ZkClient#setEventQueueCapacity(int, ZkEventOverflowPolicy, long)
+ * @since 2.3
+ */
+public enum ZkEventOverflowPolicy {
+
+    /**
+     * Block the zookeeper event thread until there is room in the queue, at most the configured
+     * time; then fall back to {@link #COALESCE}. The client holds its event lock while blocked, so
+     * meanwhile all zookeeper callbacks of the session wait too: state changes, other watches and
+     * {@link ZkLock} waiters. Keep the time short.
+     */
+    BLOCK,
+
+    /**
+     * Park the event outside the queue, keeping only the latest event per path and kind, and
+     * queue it as soon as there is room. The listeners still see the latest state of the node,
+     * but later.
+     */
+    COALESCE,
+
+    /**
+     * Drop the event, log it and count it in {@link ZkEventStats#getRejectedEvents()}. The
+     * listeners miss the change. The watch of the path is still reinstalled, parked like
+     * {@link #COALESCE} until there is room, so the listeners see the changes after it.
+     */
+    FAIL
+}
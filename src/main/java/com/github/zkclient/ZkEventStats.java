@@ -0,0 +1,115 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * A snapshot of the listener event counters of a {@link ZkClient}.
+ * <p>
+ * The counters are totals since the client connected; rates are the difference of two
+ * snapshots divided by the time between them.
+ * </p>
+ *
+ * @see ZkClient#getEventStats()
+ * @since 2.3
+ */
+public class ZkEventStats {
+
+    static final ZkEventStats EMPTY = new ZkEventStats(0, 0, 0, 0, 0, 0, 0);
+
+    private final int _queueSize;
+
+    private final int _overflowSize;
+
+    private final long _enqueuedEvents;
+
+    private final long _coalescedEvents;
+
+    private final long _overflowEvents;
+
+    private final long _rejectedEvents;
+
+    private final long _maxWaitMillis;
+
+    ZkEventStats(int queueSize, int overflowSize, long enqueuedEvents, long coalescedEvents, long overflowEvents,
+                 long rejectedEvents, long maxWaitMillis) {
+        _queueSize = queueSize;
+        _overflowSize = overflowSize;
+        _enqueuedEvents = enqueuedEvents;
+        _coalescedEvents = coalescedEvents;
+        _overflowEvents = overflowEvents;
+        _rejectedEvents = rejectedEvents;
+        _maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * @return number of events queued but not delivered yet
+     */
+    public int getQueueSize() {
+        return _queueSize;
+    }
+
+    /**
+     * @return number of events waiting for room in a full queue
+     * @see ZkEventOverflowPolicy#COALESCE
+     */
+    public int getOverflowSize() {
+        return _overflowSize;
+    }
+
+    /**
+     * @return number of events put into the queue
+     */
+    public long getEnqueuedEvents() {
+        return _enqueuedEvents;
+    }
+
+    /**
+     * @return number of events dropped because an event for the same path was still pending
+     * @see ZkClient#setEventCoalescing(boolean)
+     */
+    public long getCoalescedEvents() {
+        return _coalescedEvents;
+    }
+
+    /**
+     * @return number of events which found the queue full
+     */
+    public long getOverflowEvents() {
+        return _overflowEvents;
+    }
+
+    /**
+     * @return number of events lost because the queue was full
+     * @see ZkEventOverflowPolicy#FAIL
+     */
+    public long getRejectedEvents() {
+        return _rejectedEvents;
+    }
+
+    /**
+     * @return the longest time an event waited in the queue before it was delivered
+     */
+    public long getMaxWaitMillis() {
+        return _maxWaitMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ZkEventStats[queueSize=" + _queueSize + ", overflowSize=" + _overflowSize + ", enqueuedEvents="
+                + _enqueuedEvents + ", coalescedEvents=" + _coalescedEvents + ", overflowEvents=" + _overflowEvents
+                + ", rejectedEvents=" + _rejectedEvents + ", maxWaitMillis=" + _maxWaitMillis + "]";
+    }
+}
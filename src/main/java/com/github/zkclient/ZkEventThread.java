@@ -47,12 +47,78 @@ class ZkEventThread extends Thread {
 
         private final String _description;
 
+        private final String _path;
+
+        private final String _coalesceKey;
+
+        private long _queuedAt;
+
         public ZkEvent(String description) {
+            this(description, null);
+        }
+
+        /**
+         * @param description the description of the event
+         * @param path        the path of the znode the event belongs to, or null for state events
+         */
+        public ZkEvent(String description, String path) {
+            this(description, path, null);
+        }
+
+        /**
+         * @param description the description of the event
+         * @param path        the path of the znode the event belongs to, or null for state events
+         * @param coalesceKey events with the same key may be coalesced while one of them is not
+         *                    delivered yet, or null if every event must be delivered
+         */
+        public ZkEvent(String description, String path, String coalesceKey) {
             _description = description;
+            _path = path;
+            _coalesceKey = coalesceKey;
+        }
+
+        public String getPath() {
+            return _path;
+        }
+
+        public String getCoalesceKey() {
+            return _coalesceKey;
+        }
+
+        public String getDescription() {
+            return _description;
+        }
+
+        void setQueuedAt(long nanos) {
+            _queuedAt = nanos;
+        }
+
+        long getQueuedAt() {
+            return _queuedAt;
         }
 
         public abstract void run() throws Exception;
 
+        /**
+         * The part of {@link #run()} which must not be lost when the event is dropped, e.g.
+         * reinstalling the watch of the path. Nothing by default.
+         */
+        public void rearm() throws Exception {
+        }
+
+        /**
+         * @return an event only running {@link #rearm()} of this event
+         */
+        ZkEvent rearmOnly() {
+            return new ZkEvent("Rearm of " + _description, _path, _coalesceKey) {
+
+                @Override
+                public void run() throws Exception {
+                    ZkEvent.this.rearm();
+                }
+            };
+        }
+
         @Override
         public String toString() {
             return "ZkEvent[" + _description + "]";
@@ -70,6 +136,7 @@ class ZkEventThread extends Thread {
         try {
             while (!isShutdown()) {
                 ZkEvent zkEvent = _events.take();
+                taken(zkEvent);
                 int eventId = _eventId.incrementAndGet();
                 LOG.debug("Delivering event #" + eventId + " " + zkEvent);
                 try {
@@ -88,6 +155,14 @@ class ZkEventThread extends Thread {
         }
     }
 
+    /**
+     * Called when an event was taken from the queue, right before it is delivered.
+     *
+     * @param event the event
+     */
+    protected void taken(ZkEvent event) {
+    }
+
     /**
      * @return the shutdown
      */
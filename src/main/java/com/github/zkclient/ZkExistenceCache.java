@@ -0,0 +1,97 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers whether watched paths exist.
+ * <p>
+ * An entry is only added after an exists request which set a watch, so the server notifies the
+ * client before the answer changes. Any event of the path removes the entry, and all entries are
+ * removed when the client loses the connection.
+ * </p>
+ * <p>
+ * A response may be overtaken by an event of its path. Every event bumps the epoch of the path's
+ * stripe, and an answer read under an older epoch is dropped again.
+ * </p>
+ *
+ * @since 2.3
+ */
+class ZkExistenceCache {
+
+    private static final int STRIPES = 64;
+
+    private final ZkPathTrie<Boolean> _entries = new ZkPathTrie<Boolean>();
+
+    private final AtomicLongArray _epochs = new AtomicLongArray(STRIPES);
+
+    private final AtomicLong _hits = new AtomicLong();
+
+    private final AtomicLong _misses = new AtomicLong();
+
+    /**
+     * @return the cached answer, or null if the server has to be asked
+     */
+    Boolean get(String path) {
+        Boolean exists = _entries.get(path);
+        if (exists != null) {
+            _hits.incrementAndGet();
+        }
+        return exists;
+    }
+
+    /**
+     * @return the epoch to pass to {@link #put(String, boolean, long)} with the answer
+     */
+    long epoch(String path) {
+        return _epochs.get(stripe(path));
+    }
+
+    /**
+     * Keep the answer of the server. Every answer counts as a miss, including the ones re-arming a
+     * watch that no lookup asked for.
+     */
+    void put(String path, boolean exists, long epoch) {
+        _misses.incrementAndGet();
+        _entries.put(path, exists);
+        if (_epochs.get(stripe(path)) != epoch) {
+            // an event came in between
+            _entries.remove(path);
+        }
+    }
+
+    void invalidate(String path) {
+        _epochs.incrementAndGet(stripe(path));
+        _entries.remove(path);
+    }
+
+    void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            _epochs.incrementAndGet(i);
+        }
+        _entries.clear();
+    }
+
+    ZkCacheStats getStats() {
+        return new ZkCacheStats(_hits.get(), _misses.get(), 0, _entries.size());
+    }
+
+    private static int stripe(String path) {
+        return (path.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Threads waiting for nodes to be created, by path.
+ * <p>
+ * A waiter registers a latch for its paths before checking whether they exist, so an event
+ * arriving after the check counts the latch down. Only events of a registered path wake its
+ * waiters; state changes wake all of them, since watches may have been lost.
+ * </p>
+ *
+ * @since 2.3
+ */
+class ZkExistsWaiters {
+
+    // guarded by itself
+    private final Map<String, Set<CountDownLatch>> _waiters = new HashMap<String, Set<CountDownLatch>>();
+
+    void register(String path, CountDownLatch latch) {
+        synchronized (_waiters) {
+            Set<CountDownLatch> latches = _waiters.get(path);
+            if (latches == null) {
+                latches = new HashSet<CountDownLatch>(2);
+                _waiters.put(path, latches);
+            }
+            latches.add(latch);
+        }
+    }
+
+    void unregister(String path, CountDownLatch latch) {
+        synchronized (_waiters) {
+            Set<CountDownLatch> latches = _waiters.get(path);
+            if (latches != null && latches.remove(latch) && latches.isEmpty()) {
+                _waiters.remove(path);
+            }
+        }
+    }
+
+    /**
+     * Wake the waiters of the path.
+     */
+    void signal(String path) {
+        Set<CountDownLatch> latches;
+        synchronized (_waiters) {
+            if (_waiters.isEmpty()) {
+                return;
+            }
+            latches = _waiters.remove(path);
+        }
+        if (latches != null) {
+            for (CountDownLatch latch : latches) {
+                latch.countDown();
+            }
+        }
+    }
+
+    void signalAll() {
+        List<Set<CountDownLatch>> all;
+        synchronized (_waiters) {
+            all = new ArrayList<Set<CountDownLatch>>(_waiters.values());
+            _waiters.clear();
+        }
+        for (Set<CountDownLatch> latches : all) {
+            for (CountDownLatch latch : latches) {
+                latch.countDown();
+            }
+        }
+    }
+
+    int size() {
+        synchronized (_waiters) {
+            return _waiters.size();
+        }
+    }
+}
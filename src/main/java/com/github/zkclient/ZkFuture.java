@@ -0,0 +1,202 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.exception.ZkInterruptedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous zookeeper operation.
+ * <p>
+ * The future is completed from the zookeeper event thread, so listeners added with
+ * {@link #addListener(IZkFutureListener)} must not block.
+ * </p>
+ *
+ * @param <T> the result type
+ * @see IZkAsyncClient
+ * @since 2.3
+ */
+public class ZkFuture<T> implements Future<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZkFuture.class);
+
+    private final CountDownLatch _done = new CountDownLatch(1);
+
+    private List<IZkFutureListener<T>> _listeners = new ArrayList<IZkFutureListener<T>>();
+
+    private volatile boolean _completed;
+
+    private T _result;
+
+    private Throwable _cause;
+
+    /**
+     * Complete the future with a result.
+     *
+     * @param result the result
+     * @return false if the future was already completed
+     */
+    public boolean set(T result) {
+        return complete(result, null);
+    }
+
+    /**
+     * Complete the future with a failure.
+     *
+     * @param cause the failure
+     * @return false if the future was already completed
+     */
+    public boolean setException(Throwable cause) {
+        if (cause == null) {
+            throw new NullPointerException("cause must not be null.");
+        }
+        return complete(null, cause);
+    }
+
+    private boolean complete(T result, Throwable cause) {
+        List<IZkFutureListener<T>> listeners;
+        synchronized (this) {
+            if (_completed) {
+                return false;
+            }
+            _result = result;
+            _cause = cause;
+            _completed = true;
+            listeners = _listeners;
+            _listeners = null;
+        }
+        _done.countDown();
+        for (IZkFutureListener<T> listener : listeners) {
+            notifyListener(listener);
+        }
+        return true;
+    }
+
+    /**
+     * Add a listener which is called once the future completes. If the future is already
+     * completed the listener is called immediately in the current thread.
+     *
+     * @param listener the listener
+     */
+    public void addListener(IZkFutureListener<T> listener) {
+        synchronized (this) {
+            if (!_completed) {
+                _listeners.add(listener);
+                return;
+            }
+        }
+        notifyListener(listener);
+    }
+
+    private void notifyListener(IZkFutureListener<T> listener) {
+        try {
+            listener.operationComplete(this);
+        } catch (Throwable e) {
+            LOG.error("Error notifying future listener " + listener, e);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        return complete(null, new CancellationException());
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return _completed && _cause instanceof CancellationException;
+    }
+
+    @Override
+    public boolean isDone() {
+        return _completed;
+    }
+
+    /**
+     * @return true if the future completed with a result
+     */
+    public boolean isSuccess() {
+        return _completed && _cause == null;
+    }
+
+    /**
+     * @return the failure of the operation or null if it succeeded or has not completed yet
+     */
+    public Throwable getCause() {
+        return _completed ? _cause : null;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        _done.await();
+        return report();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!_done.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return report();
+    }
+
+    /**
+     * Wait for the result like the blocking {@link IZkClient} methods do: the failure is thrown
+     * as is instead of being wrapped in an {@link ExecutionException}.
+     *
+     * @return the result
+     * @throws ZkInterruptedException if the waiting thread was interrupted
+     * @throws RuntimeException       the failure of the operation
+     */
+    public T getResult() {
+        try {
+            _done.await();
+        } catch (InterruptedException e) {
+            throw new ZkInterruptedException(e);
+        }
+        if (_cause != null) {
+            throw ZkClientUtils.convertToRuntimeException(_cause);
+        }
+        return _result;
+    }
+
+    private T report() throws ExecutionException {
+        if (_cause instanceof CancellationException) {
+            throw (CancellationException) _cause;
+        }
+        if (_cause != null) {
+            throw new ExecutionException(_cause);
+        }
+        return _result;
+    }
+
+    @Override
+    public String toString() {
+        if (!_completed) {
+            return "ZkFuture[pending]";
+        }
+        return _cause != null ? "ZkFuture[failed: " + _cause + "]" : "ZkFuture[" + _result + "]";
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * Paths the client created or found to exist.
+ * <p>
+ * This is only a hint to skip existence checks of parent nodes. A path is forgotten when this
+ * client deletes it or receives a NodeDeleted event for it, and all paths are forgotten when the
+ * session expires. Nodes deleted by other clients without a watch go unnoticed, so callers must
+ * handle a missing node anyway and {@link #remove(String)} the stale path.
+ * </p>
+ *
+ * @since 2.3
+ */
+class ZkKnownPaths {
+
+    private final ZkPathTrie<Boolean> _paths = new ZkPathTrie<Boolean>();
+
+    private final int _maxSize;
+
+    ZkKnownPaths(int maxSize) {
+        _maxSize = maxSize;
+    }
+
+    boolean contains(String path) {
+        return "/".equals(path) || _paths.containsKey(path);
+    }
+
+    void add(String path) {
+        if (_paths.size() >= _maxSize) {
+            _paths.clear();
+        }
+        _paths.put(path, Boolean.TRUE);
+    }
+
+    /**
+     * Forget the path and all paths below it.
+     *
+     * @param path the path for the node
+     */
+    void remove(String path) {
+        _paths.removeSubtree(path);
+    }
+
+    void clear() {
+        _paths.clear();
+    }
+}
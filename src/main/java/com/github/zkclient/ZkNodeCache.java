@@ -0,0 +1,210 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.exception.ZkNoNodeException;
+import org.apache.zookeeper.Watcher.Event.KeeperState;
+import org.apache.zookeeper.ZooKeeper;
+import org.apache.zookeeper.data.Stat;
+
+/**
+ * A local copy of the data and stat of one node.
+ * <p>
+ * The cache subscribes to the data changes of the node at its {@link ZkClient}, so it shares the
+ * watch with every other listener of the path, and reads are served from memory. While the client
+ * is disconnected or until the watched paths are resynced after a session expiration the copy may
+ * be out of date; {@link #isStale()} tells.
+ * </p>
+ * <pre>
+ * ZkNodeCache cache = new ZkNodeCache(client, "/config");
+ * cache.start();
+ * byte[] config = cache.getData();
+ * </pre>
+ *
+ * @since 2.3
+ */
+public class ZkNodeCache {
+
+    private final ZkClient _client;
+
+    private final String _path;
+
+    private final Object _lock = new Object();
+
+    private volatile ZkData _current;
+
+    // guarded by _lock
+    private long _updates;
+
+    private volatile long _sessionId;
+
+    private volatile long _disconnectedAt;
+
+    private volatile boolean _started;
+
+    private final IZkDataStatListener _dataListener = new IZkDataStatListener() {
+
+        @Override
+        public void handleDataChange(String dataPath, byte[] data, Stat stat) throws Exception {
+            update(new ZkData(data, stat));
+        }
+
+        @Override
+        public void handleDataChange(String dataPath, byte[] data) throws Exception {
+            // not called for an IZkDataStatListener
+        }
+
+        @Override
+        public void handleDataDeleted(String dataPath) throws Exception {
+            update(null);
+        }
+    };
+
+    private final IZkStateListener _stateListener = new IZkStateListener() {
+
+        @Override
+        public void handleStateChanged(KeeperState state) throws Exception {
+            if (state == KeeperState.SyncConnected) {
+                _disconnectedAt = 0;
+            } else if (_disconnectedAt == 0) {
+                _disconnectedAt = System.currentTimeMillis();
+            }
+        }
+
+        @Override
+        public void handleNewSession() throws Exception {
+        }
+    };
+
+    public ZkNodeCache(ZkClient client, String path) {
+        if (client == null || path == null) {
+            throw new NullPointerException("client and path must not be null.");
+        }
+        _client = client;
+        _path = path;
+    }
+
+    /**
+     * Subscribe to the node and read it.
+     */
+    public void start() {
+        if (_started) {
+            return;
+        }
+        _started = true;
+        _client.subscribeStateChanges(_stateListener);
+        _client.subscribeDataChanges(_path, _dataListener);
+        long updates;
+        synchronized (_lock) {
+            updates = _updates;
+        }
+        ZkData data;
+        long sessionId = currentSessionId();
+        try {
+            Stat stat = new Stat();
+            data = new ZkData(_client.readData(_path, stat), stat);
+        } catch (ZkNoNodeException e) {
+            data = null;
+        }
+        synchronized (_lock) {
+            // a change event read after the watch fired and is newer
+            if (_updates == updates) {
+                _current = data;
+                _sessionId = sessionId;
+                _updates++;
+            }
+        }
+    }
+
+    /**
+     * Unsubscribe from the node. The last copy stays readable.
+     */
+    public void close() {
+        if (!_started) {
+            return;
+        }
+        _started = false;
+        _client.unsubscribeDataChanges(_path, _dataListener);
+        _client.unsubscribeStateChanges(_stateListener);
+    }
+
+    private void update(ZkData data) {
+        long sessionId = currentSessionId();
+        synchronized (_lock) {
+            _current = data;
+            _sessionId = sessionId;
+            _updates++;
+        }
+    }
+
+    private long currentSessionId() {
+        ZooKeeper zk = _client.getZooKeeper();
+        return zk != null ? zk.getSessionId() : 0;
+    }
+
+    /**
+     * @return the path of the node
+     */
+    public String getPath() {
+        return _path;
+    }
+
+    /**
+     * @return the data and stat of the node, or null if the node does not exist
+     */
+    public ZkData getCurrent() {
+        return _current;
+    }
+
+    /**
+     * @return the data of the node, or null if the node does not exist
+     */
+    public byte[] getData() {
+        ZkData current = _current;
+        return current != null ? current.getData() : null;
+    }
+
+    /**
+     * @return the stat of the node, or null if the node does not exist
+     */
+    public Stat getStat() {
+        ZkData current = _current;
+        return current != null ? current.getStat() : null;
+    }
+
+    /**
+     * The copy may be out of date while the client is disconnected, and after a session
+     * expiration until the node was read again in the new session.
+     *
+     * @return true if changes of the node may have been missed
+     */
+    public boolean isStale() {
+        return !_started || !_client.isConnected() || _sessionId != currentSessionId();
+    }
+
+    /**
+     * @return the time since the client lost the connection, or 0 if it is connected
+     */
+    public long getDisconnectedMillis() {
+        long disconnectedAt = _disconnectedAt;
+        return disconnectedAt != 0 && !_client.isConnected() ? System.currentTimeMillis() - disconnectedAt : 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ZkNodeCache[" + _path + ", " + _current + "]";
+    }
+}
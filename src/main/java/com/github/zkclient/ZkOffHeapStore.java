@@ -0,0 +1,389 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Stores node data and stats outside the java heap, for caches of large trees.
+ * <p>
+ * Millions of small cached byte arrays and stats are long lived objects the garbage collector has
+ * to trace over and over. This store keeps them in direct buffers instead: records are rounded up
+ * to a power of two and carved from slabs holding one record size each, freed records are reused
+ * for the same size, and records larger than a slab get a buffer of their own. The index of the
+ * records is a set of primitive arrays keyed by record id, so the heap holds no object per record.
+ * </p>
+ * <p>
+ * Lookups take no lock and return read-only views of the stored bytes. A record released with
+ * {@link #release(long, Object)} is pinned by the given object: it is only reused once the pin
+ * was garbage collected, so whoever can still reach the pin can still read the record. A lookup
+ * of a record which was reused fails with an {@link IllegalStateException}.
+ * </p>
+ *
+ * @see ZkTreeCache#ZkTreeCache(ZkClient, String, int, ZkOffHeapStore)
+ * @since 2.3
+ */
+public class ZkOffHeapStore {
+
+    public static final int DEFAULT_SLAB_SIZE = 1 << 20;
+
+    private static final int MIN_RECORD_SIZE = 128;
+
+    // czxid, mzxid, ctime, mtime, version, cversion, aversion, ephemeralOwner, dataLength, numChildren, pzxid
+    private static final int HEADER_SIZE = 8 + 8 + 8 + 8 + 4 + 4 + 4 + 8 + 4 + 4 + 8;
+
+    private final int _slabSize;
+
+    // written under the lock; a grown array is published as a whole, so lookups need no lock
+    private volatile ByteBuffer[] _slabs = new ByteBuffer[16];
+
+    private int _slabCount;
+
+    // slots of the freed dedicated slabs
+    private final LongStack _freeSlabs = new LongStack();
+
+    // the slab currently carved and its next free offset, by size class
+    private final int[] _currentSlab;
+
+    private final int[] _currentOffset;
+
+    // freed record locations by size class
+    private final LongStack[] _free;
+
+    // the index by record id: location (slab << 32 | offset), data length (-1 for null data),
+    // size class (-1 for a dedicated slab) and stamp
+    private volatile long[] _locations = new long[1024];
+
+    private volatile int[] _lengths = new int[1024];
+
+    private int[] _classes = new int[1024];
+
+    private volatile int[] _stamps = new int[1024];
+
+    private int _nextId;
+
+    private final LongStack _freeIds = new LongStack();
+
+    // released records waiting for their pins to be collected
+    private final Set<Pin> _pinned = new HashSet<Pin>();
+
+    private final ReferenceQueue<Object> _collected = new ReferenceQueue<Object>();
+
+    private int _records;
+
+    private long _usedBytes;
+
+    private long _slabBytes;
+
+    public ZkOffHeapStore() {
+        this(DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param slabSize the size of a slab in bytes, a power of two
+     */
+    public ZkOffHeapStore(int slabSize) {
+        if (slabSize < MIN_RECORD_SIZE || Integer.bitCount(slabSize) != 1) {
+            throw new IllegalArgumentException("slab size must be a power of two of at least " + MIN_RECORD_SIZE + ": " + slabSize);
+        }
+        _slabSize = slabSize;
+        int classes = Integer.numberOfTrailingZeros(slabSize) - Integer.numberOfTrailingZeros(MIN_RECORD_SIZE) + 1;
+        _currentSlab = new int[classes];
+        _currentOffset = new int[classes];
+        Arrays.fill(_currentSlab, -1);
+        _free = new LongStack[classes];
+        for (int i = 0; i < classes; i++) {
+            _free[i] = new LongStack();
+        }
+    }
+
+    /**
+     * Store the data and the stat.
+     *
+     * @param data the data for the node, may be null
+     * @param stat the stat for the node
+     * @return the handle of the record
+     */
+    public synchronized long put(byte[] data, Stat stat) {
+        reclaim();
+        int size = HEADER_SIZE + (data != null ? data.length : 0);
+        int id = _freeIds.isEmpty() ? _nextId++ : (int) _freeIds.pop();
+        ensureIndex(id);
+        int sizeClass;
+        long location;
+        if (size > _slabSize) {
+            sizeClass = -1;
+            location = (long) addSlab(ByteBuffer.allocateDirect(size)) << 32;
+            _usedBytes += size;
+        } else {
+            sizeClass = sizeClass(size);
+            location = allocate(sizeClass);
+            _usedBytes += MIN_RECORD_SIZE << sizeClass;
+        }
+        int stamp = _stamps[id] + 1;
+        ByteBuffer slab = _slabs[(int) (location >>> 32)];
+        int offset = (int) location;
+        slab.putLong(offset, stat.getCzxid());
+        slab.putLong(offset + 8, stat.getMzxid());
+        slab.putLong(offset + 16, stat.getCtime());
+        slab.putLong(offset + 24, stat.getMtime());
+        slab.putInt(offset + 32, stat.getVersion());
+        slab.putInt(offset + 36, stat.getCversion());
+        slab.putInt(offset + 40, stat.getAversion());
+        slab.putLong(offset + 44, stat.getEphemeralOwner());
+        slab.putInt(offset + 52, stat.getDataLength());
+        slab.putInt(offset + 56, stat.getNumChildren());
+        slab.putLong(offset + 60, stat.getPzxid());
+        if (data != null) {
+            ByteBuffer target = slab.duplicate();
+            target.position(offset + HEADER_SIZE);
+            target.put(data);
+        }
+        _locations[id] = location;
+        _lengths[id] = data != null ? data.length : -1;
+        _classes[id] = sizeClass;
+        _stamps[id] = stamp;
+        _records++;
+        return (long) stamp << 32 | id;
+    }
+
+    /**
+     * @param handle the handle of the record
+     * @return a read-only view of the data, or null for null data; valid until the record is reused
+     */
+    public ByteBuffer getData(long handle) {
+        int id = check(handle);
+        int length = _lengths[id];
+        if (length < 0) {
+            return null;
+        }
+        long location = _locations[id];
+        ByteBuffer view = _slabs[(int) (location >>> 32)].duplicate();
+        view.position((int) location + HEADER_SIZE);
+        view.limit((int) location + HEADER_SIZE + length);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * @param handle the handle of the record
+     * @return a copy of the stat
+     */
+    public Stat getStat(long handle) {
+        long location = _locations[check(handle)];
+        ByteBuffer slab = _slabs[(int) (location >>> 32)];
+        int offset = (int) location;
+        return new Stat(slab.getLong(offset), slab.getLong(offset + 8), slab.getLong(offset + 16),
+                slab.getLong(offset + 24), slab.getInt(offset + 32), slab.getInt(offset + 36), slab.getInt(offset + 40),
+                slab.getLong(offset + 44), slab.getInt(offset + 52), slab.getInt(offset + 56), slab.getLong(offset + 60));
+    }
+
+    /**
+     * @param handle the handle of the record
+     * @return a copy of the data and the stat
+     */
+    public ZkData get(long handle) {
+        ByteBuffer view = getData(handle);
+        byte[] data = null;
+        if (view != null) {
+            data = new byte[view.remaining()];
+            view.get(data);
+        }
+        return new ZkData(data, getStat(handle));
+    }
+
+    /**
+     * Release the record at once. Only for records nobody reads anymore.
+     *
+     * @param handle the handle of the record
+     */
+    public synchronized void release(long handle) {
+        free(check(handle));
+        reclaim();
+    }
+
+    /**
+     * Release the record once the pin is garbage collected. Until then the record stays readable,
+     * e.g. pinned by the tree node which holds the handle.
+     *
+     * @param handle the handle of the record
+     * @param pin    the object keeping the record
+     */
+    public synchronized void release(long handle, Object pin) {
+        check(handle);
+        _pinned.add(new Pin(pin, handle, _collected));
+        reclaim();
+    }
+
+    /**
+     * @return number of stored records, including released records not reused yet
+     */
+    public synchronized int getRecords() {
+        reclaim();
+        return _records;
+    }
+
+    /**
+     * @return bytes of the slabs taken by records
+     */
+    public synchronized long getUsedBytes() {
+        reclaim();
+        return _usedBytes;
+    }
+
+    /**
+     * @return bytes of direct memory allocated for slabs
+     */
+    public synchronized long getSlabBytes() {
+        reclaim();
+        return _slabBytes;
+    }
+
+    private int check(long handle) {
+        int id = (int) handle;
+        int[] stamps = _stamps;
+        if (id < 0 || id >= stamps.length || stamps[id] != (int) (handle >>> 32) || _locations[id] < 0) {
+            throw new IllegalStateException("The record was released and reused: " + handle);
+        }
+        return id;
+    }
+
+    private void reclaim() {
+        Pin pin;
+        while ((pin = (Pin) _collected.poll()) != null) {
+            if (_pinned.remove(pin)) {
+                int id = (int) pin._handle;
+                if (_stamps[id] == (int) (pin._handle >>> 32) && _locations[id] >= 0) {
+                    free(id);
+                }
+            }
+        }
+    }
+
+    private void free(int id) {
+        int sizeClass = _classes[id];
+        if (sizeClass < 0) {
+            int slab = (int) (_locations[id] >>> 32);
+            _usedBytes -= _slabs[slab].capacity();
+            _slabBytes -= _slabs[slab].capacity();
+            _slabs[slab] = null;
+            _freeSlabs.push(slab);
+        } else {
+            _free[sizeClass].push(_locations[id]);
+            _usedBytes -= MIN_RECORD_SIZE << sizeClass;
+        }
+        _locations[id] = -1;
+        _freeIds.push(id);
+        _records--;
+    }
+
+    private long allocate(int sizeClass) {
+        if (!_free[sizeClass].isEmpty()) {
+            return _free[sizeClass].pop();
+        }
+        int recordSize = MIN_RECORD_SIZE << sizeClass;
+        if (_currentSlab[sizeClass] < 0 || _currentOffset[sizeClass] + recordSize > _slabSize) {
+            _currentSlab[sizeClass] = addSlab(ByteBuffer.allocateDirect(_slabSize));
+            _currentOffset[sizeClass] = 0;
+        }
+        long location = (long) _currentSlab[sizeClass] << 32 | _currentOffset[sizeClass];
+        _currentOffset[sizeClass] += recordSize;
+        return location;
+    }
+
+    private int addSlab(ByteBuffer slab) {
+        _slabBytes += slab.capacity();
+        if (!_freeSlabs.isEmpty()) {
+            int index = (int) _freeSlabs.pop();
+            _slabs[index] = slab;
+            return index;
+        }
+        if (_slabCount == _slabs.length) {
+            ByteBuffer[] slabs = Arrays.copyOf(_slabs, _slabCount * 2);
+            slabs[_slabCount] = slab;
+            _slabs = slabs;
+        } else {
+            _slabs[_slabCount] = slab;
+        }
+        return _slabCount++;
+    }
+
+    private static int sizeClass(int size) {
+        int rounded = Math.max(MIN_RECORD_SIZE, Integer.highestOneBit(size - 1) << 1);
+        return Integer.numberOfTrailingZeros(rounded) - Integer.numberOfTrailingZeros(MIN_RECORD_SIZE);
+    }
+
+    private void ensureIndex(int id) {
+        if (id < _locations.length) {
+            return;
+        }
+        int length = _locations.length * 2;
+        // the stamps last, lookups check the id against their length
+        _locations = Arrays.copyOf(_locations, length);
+        _lengths = Arrays.copyOf(_lengths, length);
+        _classes = Arrays.copyOf(_classes, length);
+        _stamps = Arrays.copyOf(_stamps, length);
+    }
+
+    /**
+     * A weak reference to the pin of a released record.
+     */
+    private static final class Pin extends WeakReference<Object> {
+
+        private final long _handle;
+
+        Pin(Object pin, long handle, ReferenceQueue<Object> queue) {
+            super(pin, queue);
+            _handle = handle;
+        }
+    }
+
+    /**
+     * A growable stack of primitive longs.
+     */
+    private static final class LongStack {
+
+        private long[] _values = new long[16];
+
+        private int _size;
+
+        void push(long value) {
+            if (_size == _values.length) {
+                _values = Arrays.copyOf(_values, _size * 2);
+            }
+            _values[_size++] = value;
+        }
+
+        long pop() {
+            return _values[--_size];
+        }
+
+        boolean isEmpty() {
+            return _size == 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ZkOffHeapStore[records=" + _records + ", usedBytes=" + _usedBytes + ", slabBytes=" + _slabBytes + "]";
+    }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A local copy of the children of a node and their data.
+ * <p>
+ * A change of the children only reads the added children, with pipelined requests, and every
+ * child has a data watch, so a change of one child reads only that child. The listeners get a
+ * {@link ZkChildEvent} per added, changed or removed child instead of the full list of children.
+ * </p>
+ * <pre>
+ * ZkPathChildrenCache cache = new ZkPathChildrenCache(client, "/services");
+ * cache.addListener(listener);
+ * cache.start();
+ * </pre>
+ *
+ * @since 2.3
+ */
+public class ZkPathChildrenCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZkPathChildrenCache.class);
+
+    private final ZkClient _client;
+
+    private final String _path;
+
+    private final Map<String, ZkData> _children = new ConcurrentHashMap<String, ZkData>();
+
+    // children read without the lock, with the latest event seen meanwhile or null; guarded by this
+    private final Map<String, ZkData> _loading = new HashMap<String, ZkData>();
+
+    private final List<IZkChildCacheListener> _listeners = new CopyOnWriteArrayList<IZkChildCacheListener>();
+
+    private volatile boolean _started;
+
+    private final IZkChildListener _childListener = new IZkChildListener() {
+
+        @Override
+        public void handleChildChange(String parentPath, List<String> currentChilds) throws Exception {
+            refresh(currentChilds);
+        }
+    };
+
+    private final IZkDataStatListener _dataListener = new IZkDataStatListener() {
+
+        @Override
+        public void handleDataChange(String dataPath, byte[] data, Stat stat) throws Exception {
+            updated(dataPath, new ZkData(data, stat));
+        }
+
+        @Override
+        public void handleDataChange(String dataPath, byte[] data) throws Exception {
+            // not called for an IZkDataStatListener
+        }
+
+        @Override
+        public void handleDataDeleted(String dataPath) throws Exception {
+            removed(dataPath);
+        }
+    };
+
+    public ZkPathChildrenCache(ZkClient client, String path) {
+        if (client == null || path == null) {
+            throw new NullPointerException("client and path must not be null.");
+        }
+        _client = client;
+        _path = path;
+    }
+
+    public void addListener(IZkChildCacheListener listener) {
+        _listeners.add(listener);
+    }
+
+    public void removeListener(IZkChildCacheListener listener) {
+        _listeners.remove(listener);
+    }
+
+    /**
+     * Subscribe to the node and read all children. The listeners get a
+     * {@link ZkChildEvent.Type#CHILD_ADDED} event for each child.
+     */
+    public void start() {
+        if (_started) {
+            return;
+        }
+        _started = true;
+        refresh(_client.subscribeChildChanges(_path, _childListener));
+    }
+
+    /**
+     * Unsubscribe from the node and the children. The last copy stays readable.
+     */
+    public synchronized void close() {
+        if (!_started) {
+            return;
+        }
+        _started = false;
+        _client.unsubscribeChildChanges(_path, _childListener);
+        for (String child : _children.keySet()) {
+            _client.unsubscribeDataChanges(child, _dataListener);
+        }
+        for (String child : _loading.keySet()) {
+            _client.unsubscribeDataChanges(child, _dataListener);
+        }
+        _loading.clear();
+    }
+
+    private void refresh(List<String> names) {
+        List<String> added = added(names);
+        if (added.isEmpty()) {
+            return;
+        }
+        // read without the lock, so the events of the other children and the readers go on
+        Map<String, ZkData> read;
+        // also while the circuit breaker is half open, else the new children are never loaded
+        boolean internal = _client.beginInternalCall();
+        try {
+            read = _client.readData(added);
+        } finally {
+            _client.endInternalCall(internal);
+        }
+        synchronized (this) {
+            if (!_started) {
+                return;
+            }
+            for (String child : added) {
+                if (!_loading.containsKey(child)) {
+                    // removed meanwhile
+                    continue;
+                }
+                ZkData seen = _loading.remove(child);
+                ZkData data = read.get(child);
+                if (seen != null && (data == null || seen.getStat().getMzxid() > data.getStat().getMzxid())) {
+                    data = seen;
+                }
+                if (data == null) {
+                    // deleted in between
+                    _client.unsubscribeDataChanges(child, _dataListener);
+                    continue;
+                }
+                _children.put(child, data);
+                fire(new ZkChildEvent(ZkChildEvent.Type.CHILD_ADDED, child, data));
+            }
+        }
+    }
+
+    /**
+     * Apply the removals of a child event.
+     *
+     * @return the added children, to be read without the lock
+     */
+    private synchronized List<String> added(List<String> names) {
+        if (!_started) {
+            return Collections.emptyList();
+        }
+        Set<String> current = new HashSet<String>();
+        if (names != null) {
+            for (String name : names) {
+                current.add(childPath(name));
+            }
+        }
+        for (String child : new ArrayList<String>(_children.keySet())) {
+            if (!current.contains(child)) {
+                removed(child);
+            }
+        }
+        for (String child : new ArrayList<String>(_loading.keySet())) {
+            if (!current.contains(child)) {
+                removed(child);
+            }
+        }
+        List<String> added = new ArrayList<String>();
+        for (String child : current) {
+            if (!_children.containsKey(child) && !_loading.containsKey(child)) {
+                // the read sets the data watch
+                _client.addDataListener(child, _dataListener);
+                _loading.put(child, null);
+                added.add(child);
+            }
+        }
+        Collections.sort(added);
+        return added;
+    }
+
+    private synchronized void updated(String child, ZkData data) {
+        if (_loading.containsKey(child)) {
+            ZkData seen = _loading.get(child);
+            if (seen == null || seen.getStat().getMzxid() < data.getStat().getMzxid()) {
+                _loading.put(child, data);
+            }
+            return;
+        }
+        ZkData old = _children.get(child);
+        // not added yet or already removed, or an older read
+        if (!_started || old == null || old.getStat().getMzxid() >= data.getStat().getMzxid()) {
+            return;
+        }
+        _children.put(child, data);
+        fire(new ZkChildEvent(ZkChildEvent.Type.CHILD_UPDATED, child, data));
+    }
+
+    private synchronized void removed(String child) {
+        if (_loading.containsKey(child)) {
+            _loading.remove(child);
+            _client.unsubscribeDataChanges(child, _dataListener);
+            return;
+        }
+        ZkData old = _children.remove(child);
+        if (old == null) {
+            return;
+        }
+        _client.unsubscribeDataChanges(child, _dataListener);
+        fire(new ZkChildEvent(ZkChildEvent.Type.CHILD_REMOVED, child, old));
+    }
+
+    private void fire(ZkChildEvent event) {
+        for (IZkChildCacheListener listener : _listeners) {
+            try {
+                listener.childEvent(this, event);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOG.error("Error handling " + event + " in " + listener, e);
+            }
+        }
+    }
+
+    private String childPath(String name) {
+        return "/".equals(_path) ? "/" + name : _path + "/" + name;
+    }
+
+    /**
+     * @return the path of the parent node
+     */
+    public String getPath() {
+        return _path;
+    }
+
+    /**
+     * @param name the name of the child
+     * @return the data and stat of the child, or null if the child does not exist
+     */
+    public ZkData getChild(String name) {
+        return _children.get(childPath(name));
+    }
+
+    /**
+     * @return the full paths of the children with their data and stat
+     */
+    public Map<String, ZkData> getChildren() {
+        return Collections.unmodifiableMap(_children);
+    }
+
+    @Override
+    public String toString() {
+        return "ZkPathChildrenCache[" + _path + ", children=" + _children.size() + "]";
+    }
+}
@@ -0,0 +1,408 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A map from znode paths to values, stored as a trie of path segments.
+ * <p>
+ * Paths sharing a prefix share its nodes, and a segment name used below several parents, e.g.
+ * "config" or "leader", is stored once. {@link #get(String)} walks the path in place and allocates
+ * nothing. Reads do not lock and see the latest completed write; writes are serialized.
+ * </p>
+ *
+ * @param <V> the value type
+ * @since 2.3
+ */
+class ZkPathTrie<V> {
+
+    private static final int INITIAL_TABLE_SIZE = 4;
+
+    /**
+     * A link of a hash chain. Immutable, so readers can follow a chain while it is replaced.
+     */
+    private static final class Link<V> {
+
+        final Node<V> _node;
+
+        final Link<V> _next;
+
+        Link(Node<V> node, Link<V> next) {
+            _node = node;
+            _next = next;
+        }
+    }
+
+    private static final class Node<V> {
+
+        final String _segment;
+
+        final int _hash;
+
+        volatile V _value;
+
+        // the child while there is only one, which is most nodes of a deep tree
+        volatile Node<V> _single;
+
+        // null while there is at most one child; replaced as a whole when resized
+        volatile AtomicReferenceArray<Link<V>> _table;
+
+        // guarded by the trie
+        int _children;
+
+        Node(String segment) {
+            _segment = segment;
+            _hash = segment.hashCode();
+        }
+
+        Node<V> child(String path, int start, int end, int hash) {
+            Node<V> single = _single;
+            if (single != null) {
+                return single.matches(path, start, end, hash) ? single : null;
+            }
+            AtomicReferenceArray<Link<V>> table = _table;
+            if (table == null) {
+                return null;
+            }
+            for (Link<V> link = table.get(hash & (table.length() - 1)); link != null; link = link._next) {
+                if (link._node.matches(path, start, end, hash)) {
+                    return link._node;
+                }
+            }
+            return null;
+        }
+
+        boolean matches(String path, int start, int end, int hash) {
+            return _hash == hash && _segment.length() == end - start
+                    && path.regionMatches(start, _segment, 0, end - start);
+        }
+    }
+
+    /**
+     * A shared segment name with the number of nodes using it.
+     */
+    private static final class Segment {
+
+        final String _name;
+
+        int _refs;
+
+        Segment(String name) {
+            _name = name;
+        }
+    }
+
+    private final Node<V> _root = new Node<V>("");
+
+    // guarded by this
+    private final Map<String, Segment> _segments = new HashMap<String, Segment>();
+
+    private volatile int _size;
+
+    /**
+     * @param path the path for the node
+     * @return the value, or null if there is none
+     */
+    V get(String path) {
+        Node<V> node = find(path);
+        return node != null ? node._value : null;
+    }
+
+    boolean containsKey(String path) {
+        return get(path) != null;
+    }
+
+    /**
+     * @param path  the path for the node
+     * @param value the value, not null
+     * @return the previous value or null
+     */
+    synchronized V put(String path, V value) {
+        if (value == null) {
+            throw new NullPointerException("value must not be null.");
+        }
+        Node<V> node = _root;
+        int start = 1;
+        while (start < path.length()) {
+            int end = end(path, start);
+            int hash = hash(path, start, end);
+            Node<V> child = node.child(path, start, end, hash);
+            if (child == null) {
+                child = new Node<V>(intern(path.substring(start, end)));
+                addChild(node, child);
+            }
+            node = child;
+            start = end + 1;
+        }
+        V old = node._value;
+        node._value = value;
+        if (old == null) {
+            _size++;
+        }
+        return old;
+    }
+
+    /**
+     * @param path the path for the node
+     * @return the removed value or null
+     */
+    synchronized V remove(String path) {
+        List<Node<V>> trail = trail(path);
+        if (trail == null) {
+            return null;
+        }
+        Node<V> node = trail.get(trail.size() - 1);
+        V old = node._value;
+        if (old != null) {
+            node._value = null;
+            _size--;
+            prune(trail);
+        }
+        return old;
+    }
+
+    /**
+     * Remove the value of the path and all values below it.
+     *
+     * @param path the path for the node
+     */
+    synchronized void removeSubtree(String path) {
+        List<Node<V>> trail = trail(path);
+        if (trail == null) {
+            return;
+        }
+        Node<V> node = trail.get(trail.size() - 1);
+        _size -= count(node);
+        node._value = null;
+        if (node == _root) {
+            release(node);
+            node._single = null;
+            node._table = null;
+            node._children = 0;
+            return;
+        }
+        release(node);
+        removeChild(trail.get(trail.size() - 2), node);
+        prune(trail.subList(0, trail.size() - 1));
+    }
+
+    synchronized void clear() {
+        removeSubtree("/");
+    }
+
+    int size() {
+        return _size;
+    }
+
+    boolean isEmpty() {
+        return _size == 0;
+    }
+
+    /**
+     * @return a copy of all entries, parents before their children
+     */
+    Map<String, V> toMap() {
+        Map<String, V> result = new LinkedHashMap<String, V>();
+        collect(_root, "", result);
+        return result;
+    }
+
+    private void collect(Node<V> node, String path, Map<String, V> result) {
+        V value = node._value;
+        if (value != null) {
+            result.put(path.length() == 0 ? "/" : path, value);
+        }
+        for (Node<V> child : children(node)) {
+            collect(child, path + "/" + child._segment, result);
+        }
+    }
+
+    private static <V> List<Node<V>> children(Node<V> node) {
+        List<Node<V>> children = new ArrayList<Node<V>>();
+        Node<V> single = node._single;
+        if (single != null) {
+            children.add(single);
+            return children;
+        }
+        AtomicReferenceArray<Link<V>> table = node._table;
+        if (table != null) {
+            for (int i = 0; i < table.length(); i++) {
+                for (Link<V> link = table.get(i); link != null; link = link._next) {
+                    children.add(link._node);
+                }
+            }
+        }
+        return children;
+    }
+
+    private Node<V> find(String path) {
+        Node<V> node = _root;
+        int start = 1;
+        while (node != null && start < path.length()) {
+            int end = end(path, start);
+            node = node.child(path, start, end, hash(path, start, end));
+            start = end + 1;
+        }
+        return node;
+    }
+
+    /**
+     * @return the nodes from the root to the path, or null if the path is not in the trie
+     */
+    private List<Node<V>> trail(String path) {
+        List<Node<V>> trail = new ArrayList<Node<V>>();
+        Node<V> node = _root;
+        trail.add(node);
+        int start = 1;
+        while (start < path.length()) {
+            int end = end(path, start);
+            node = node.child(path, start, end, hash(path, start, end));
+            if (node == null) {
+                return null;
+            }
+            trail.add(node);
+            start = end + 1;
+        }
+        return trail;
+    }
+
+    /**
+     * Remove the empty nodes at the end of the trail.
+     */
+    private void prune(List<Node<V>> trail) {
+        for (int i = trail.size() - 1; i > 0; i--) {
+            Node<V> node = trail.get(i);
+            if (node._value != null || node._children > 0) {
+                return;
+            }
+            release(node);
+            removeChild(trail.get(i - 1), node);
+        }
+    }
+
+    private void addChild(Node<V> parent, Node<V> child) {
+        if (parent._children == 0) {
+            parent._single = child;
+            parent._children = 1;
+            return;
+        }
+        AtomicReferenceArray<Link<V>> table = parent._table;
+        if (table == null) {
+            // the table is published before the single child is dropped, readers find it in either
+            Node<V> single = parent._single;
+            table = new AtomicReferenceArray<Link<V>>(INITIAL_TABLE_SIZE);
+            table.set(single._hash & (INITIAL_TABLE_SIZE - 1), new Link<V>(single, null));
+            parent._table = table;
+            parent._single = null;
+        } else if (parent._children + 1 > table.length() * 3 / 4) {
+            AtomicReferenceArray<Link<V>> larger = new AtomicReferenceArray<Link<V>>(table.length() * 2);
+            for (int i = 0; i < table.length(); i++) {
+                for (Link<V> link = table.get(i); link != null; link = link._next) {
+                    int index = link._node._hash & (larger.length() - 1);
+                    larger.set(index, new Link<V>(link._node, larger.get(index)));
+                }
+            }
+            table = larger;
+            parent._table = table;
+        }
+        int index = child._hash & (table.length() - 1);
+        table.set(index, new Link<V>(child, table.get(index)));
+        parent._children++;
+    }
+
+    private void removeChild(Node<V> parent, Node<V> child) {
+        if (parent._single == child) {
+            parent._single = null;
+            parent._children = 0;
+            return;
+        }
+        AtomicReferenceArray<Link<V>> table = parent._table;
+        int index = child._hash & (table.length() - 1);
+        table.set(index, without(table.get(index), child));
+        if (--parent._children == 0) {
+            parent._table = null;
+        }
+    }
+
+    /**
+     * @return a copy of the chain without the node, sharing the links after it
+     */
+    private static <V> Link<V> without(Link<V> link, Node<V> node) {
+        if (link == null) {
+            return null;
+        }
+        if (link._node == node) {
+            return link._next;
+        }
+        return new Link<V>(link._node, without(link._next, node));
+    }
+
+    private int count(Node<V> node) {
+        int count = node._value != null ? 1 : 0;
+        for (Node<V> child : children(node)) {
+            count += count(child);
+        }
+        return count;
+    }
+
+    private String intern(String name) {
+        Segment segment = _segments.get(name);
+        if (segment == null) {
+            segment = new Segment(name);
+            _segments.put(name, segment);
+        }
+        segment._refs++;
+        return segment._name;
+    }
+
+    /**
+     * Release the segment names of the node and all nodes below it.
+     */
+    private void release(Node<V> node) {
+        for (Node<V> child : children(node)) {
+            release(child);
+        }
+        if (node == _root) {
+            return;
+        }
+        Segment segment = _segments.get(node._segment);
+        if (segment != null && --segment._refs == 0) {
+            _segments.remove(node._segment);
+        }
+    }
+
+    private static int end(String path, int start) {
+        int end = path.indexOf('/', start);
+        return end < 0 ? path.length() : end;
+    }
+
+    /**
+     * @return the {@link String#hashCode()} of the segment, without creating it
+     */
+    private static int hash(String path, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + path.charAt(i);
+        }
+        return hash;
+    }
+}
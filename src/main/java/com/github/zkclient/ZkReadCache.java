@@ -0,0 +1,214 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded least recently used cache of node data and stat.
+ * <p>
+ * Entries read with a watch stay until an event of the path removes them; others expire after the
+ * time given by the {@link ZkReadCachePolicy}. The cache keeps at most a number of entries and of
+ * data bytes and drops the least recently used entries first. Like {@link ZkExistenceCache}, an
+ * answer overtaken by an event of its path is dropped again.
+ * </p>
+ *
+ * @since 2.3
+ */
+class ZkReadCache {
+
+    private static final int STRIPES = 64;
+
+    private static class Entry {
+
+        final byte[] _data;
+
+        final Stat _stat;
+
+        final long _expiresAt;
+
+        Entry(byte[] data, Stat stat, long expiresAt) {
+            _data = data;
+            _stat = stat;
+            _expiresAt = expiresAt;
+        }
+
+        int size() {
+            return _data != null ? _data.length : 0;
+        }
+    }
+
+    private final int _maxEntries;
+
+    private final long _maxBytes;
+
+    private final ZkReadCachePolicy _policy;
+
+    // guarded by itself
+    private final LinkedHashMap<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    // guarded by _entries
+    private long _bytes;
+
+    private final AtomicLongArray _epochs = new AtomicLongArray(STRIPES);
+
+    private final AtomicLong _hits = new AtomicLong();
+
+    private final AtomicLong _misses = new AtomicLong();
+
+    private final AtomicLong _evictions = new AtomicLong();
+
+    // disconnected: the entries are only kept for stale reads
+    private volatile boolean _suspended;
+
+    ZkReadCache(int maxEntries, long maxBytes, ZkReadCachePolicy policy) {
+        _maxEntries = maxEntries;
+        _maxBytes = maxBytes;
+        _policy = policy;
+    }
+
+    /**
+     * @param path  the path for the node
+     * @param watch true if the read sets a watch
+     * @return true if the path may be cached
+     */
+    boolean isCached(String path, boolean watch) {
+        long ttl = _policy.getTtlMillis(path);
+        return ttl > 0 || (ttl == ZkReadCachePolicy.WATCHED_ONLY && watch);
+    }
+
+    /**
+     * @param path the path for the node
+     * @return a copy of the cached data with the stat, or null on a miss
+     */
+    ZkData get(String path) {
+        if (_suspended) {
+            _misses.incrementAndGet();
+            return null;
+        }
+        Entry entry;
+        synchronized (_entries) {
+            entry = _entries.get(path);
+            if (entry != null && entry._expiresAt < System.currentTimeMillis()) {
+                remove(path);
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            _misses.incrementAndGet();
+            return null;
+        }
+        _hits.incrementAndGet();
+        return new ZkData(entry._data != null ? entry._data.clone() : null, entry._stat);
+    }
+
+    /**
+     * @param path the path for the node
+     * @return a copy of the last cached data, even if expired or suspended, or null
+     */
+    ZkData getStale(String path) {
+        Entry entry;
+        synchronized (_entries) {
+            entry = _entries.get(path);
+        }
+        if (entry == null) {
+            return null;
+        }
+        return new ZkData(entry._data != null ? entry._data.clone() : null, entry._stat);
+    }
+
+    long epoch(String path) {
+        return _epochs.get(stripe(path));
+    }
+
+    void put(String path, byte[] data, Stat stat, boolean watched, long epoch) {
+        if (_suspended || (data != null && data.length > _maxBytes)) {
+            return;
+        }
+        long expiresAt = watched ? Long.MAX_VALUE : System.currentTimeMillis() + _policy.getTtlMillis(path);
+        Entry entry = new Entry(data != null ? data.clone() : null, stat, expiresAt);
+        synchronized (_entries) {
+            remove(path);
+            _entries.put(path, entry);
+            _bytes += entry.size();
+            for (Iterator<Entry> it = _entries.values().iterator(); it.hasNext()
+                    && (_entries.size() > _maxEntries || _bytes > _maxBytes); ) {
+                _bytes -= it.next().size();
+                it.remove();
+                _evictions.incrementAndGet();
+            }
+        }
+        if (_epochs.get(stripe(path)) != epoch) {
+            // an event came in between
+            invalidate(path);
+        }
+    }
+
+    void invalidate(String path) {
+        _epochs.incrementAndGet(stripe(path));
+        synchronized (_entries) {
+            remove(path);
+        }
+    }
+
+    void clear() {
+        for (int i = 0; i < STRIPES; i++) {
+            _epochs.incrementAndGet(i);
+        }
+        synchronized (_entries) {
+            _entries.clear();
+            _bytes = 0;
+        }
+        _suspended = false;
+    }
+
+    /**
+     * Stop answering lookups until {@link #clear()}, but keep the entries for
+     * {@link #getStale(String)}. Reads in flight are not cached anymore.
+     */
+    void suspend() {
+        _suspended = true;
+        for (int i = 0; i < STRIPES; i++) {
+            _epochs.incrementAndGet(i);
+        }
+    }
+
+    boolean isSuspended() {
+        return _suspended;
+    }
+
+    private void remove(String path) {
+        Entry old = _entries.remove(path);
+        if (old != null) {
+            _bytes -= old.size();
+        }
+    }
+
+    ZkCacheStats getStats() {
+        synchronized (_entries) {
+            return new ZkCacheStats(_hits.get(), _misses.get(), _evictions.get(), _entries.size());
+        }
+    }
+
+    private static int stripe(String path) {
+        return (path.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+}
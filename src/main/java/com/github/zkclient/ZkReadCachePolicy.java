@@ -0,0 +1,101 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides per path whether {@link ZkClient#readData(String, Stat)} may be answered from the read
+ * cache, by the longest matching path prefix.
+ * <pre>
+ * ZkReadCachePolicy policy = new ZkReadCachePolicy()
+ *         .cache("/config", 5000)
+ *         .never("/config/locks");
+ * </pre>
+ * A prefix matches whole path names, a trailing slash is ignored. Paths without a matching prefix
+ * are not cached. Subclasses may override
+ * {@link #getTtlMillis(String)} for other rules.
+ *
+ * @see ZkClient#setReadCache(int, long, ZkReadCachePolicy)
+ * @since 2.3
+ */
+public class ZkReadCachePolicy {
+
+    /**
+     * the path is never cached
+     */
+    public static final long NEVER = -1;
+
+    /**
+     * the path is only cached while it is watched
+     */
+    public static final long WATCHED_ONLY = 0;
+
+    // by prefix without a trailing slash, looked up for every cached read
+    private final Map<String, Long> _prefixes = new ConcurrentHashMap<String, Long>();
+
+    /**
+     * Cache the paths below the prefix. Watched paths are cached until the watch fires; other
+     * paths at most for the given time.
+     *
+     * @param prefix    the path prefix, e.g. "/config"
+     * @param ttlMillis maximal age of an unwatched entry, or {@link #WATCHED_ONLY}
+     * @return this policy
+     */
+    public ZkReadCachePolicy cache(String prefix, long ttlMillis) {
+        _prefixes.put(normalize(prefix), ttlMillis);
+        return this;
+    }
+
+    /**
+     * Never cache the paths below the prefix.
+     *
+     * @param prefix the path prefix, e.g. "/locks"
+     * @return this policy
+     */
+    public ZkReadCachePolicy never(String prefix) {
+        _prefixes.put(normalize(prefix), NEVER);
+        return this;
+    }
+
+    /**
+     * @param path the path for the node
+     * @return the maximal age of an unwatched entry, {@link #WATCHED_ONLY} or {@link #NEVER}
+     */
+    public long getTtlMillis(String path) {
+        // the longest prefix is the closest ancestor with a rule
+        String prefix = normalize(path);
+        while (true) {
+            Long ttl = _prefixes.get(prefix);
+            if (ttl != null) {
+                return ttl;
+            }
+            if ("/".equals(prefix)) {
+                return NEVER;
+            }
+            prefix = ZkClient.getParent(prefix);
+        }
+    }
+
+    private static String normalize(String prefix) {
+        int end = prefix.length();
+        while (end > 1 && prefix.charAt(end - 1) == '/') {
+            end--;
+        }
+        return prefix.substring(0, end);
+    }
+}
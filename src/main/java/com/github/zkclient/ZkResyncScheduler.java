@@ -0,0 +1,202 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Re-reads the watched paths of a {@link ZkClient} after a session expiration.
+ * <p>
+ * The watches of an expired session are gone, so every listener has to be notified and every
+ * watch re-armed. Doing that for all paths at once hits the ensemble with a burst of reads just
+ * when it is struggling. With a rate the paths are handed to the listener event threads one at a
+ * time, in descending {@link IZkResyncPriority}, after a random start delay and with randomized
+ * gaps, so the clients of an ensemble spread their resyncs. A new expiration restarts the resync.
+ * </p>
+ *
+ * @since 2.3
+ */
+class ZkResyncScheduler extends Thread {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZkResyncScheduler.class);
+
+    /**
+     * A watched path to resync.
+     */
+    static abstract class Task implements Runnable {
+
+        final String _path;
+
+        final int _priority;
+
+        Task(String path, int priority) {
+            _path = path;
+            _priority = priority;
+        }
+
+        @Override
+        public String toString() {
+            return "Resync[" + _path + ", priority=" + _priority + "]";
+        }
+    }
+
+    private static final Comparator<Task> PRIORITY_ORDER = new Comparator<Task>() {
+
+        @Override
+        public int compare(Task a, Task b) {
+            return a._priority > b._priority ? -1 : a._priority < b._priority ? 1 : 0;
+        }
+    };
+
+    private final Random _random = new Random();
+
+    private volatile int _rate;
+
+    private volatile long _maxStartDelayMillis;
+
+    // guarded by this
+    private List<Task> _tasks;
+
+    private int _generation;
+
+    private long _resyncs;
+
+    private int _total;
+
+    private int _done;
+
+    private long _startedAt;
+
+    private long _finishedAt;
+
+    ZkResyncScheduler(String name) {
+        super("ZkClient-ResyncThread-" + name);
+        setDaemon(true);
+    }
+
+    void setRate(int pathsPerSecond, long maxStartDelayMillis) {
+        _rate = pathsPerSecond;
+        _maxStartDelayMillis = maxStartDelayMillis;
+    }
+
+    /**
+     * Resync the paths, replacing a resync still in progress. Without a rate the tasks run at once
+     * in the calling thread.
+     *
+     * @param tasks the paths to resync
+     */
+    void schedule(List<Task> tasks) {
+        List<Task> sorted = new ArrayList<Task>(tasks);
+        // stable, so paths of the same priority keep their order
+        Collections.sort(sorted, PRIORITY_ORDER);
+        synchronized (this) {
+            _generation++;
+            _resyncs++;
+            _total = sorted.size();
+            _done = 0;
+            _startedAt = System.currentTimeMillis();
+            _finishedAt = sorted.isEmpty() ? _startedAt : 0;
+            if (_rate > 0) {
+                LOG.info("Resyncing " + sorted.size() + " watched paths at " + _rate + " paths/s");
+                _tasks = sorted;
+                notifyAll();
+                return;
+            }
+            _tasks = null;
+        }
+        int generation = currentGeneration();
+        for (Task task : sorted) {
+            run(task);
+            done(generation);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!isInterrupted()) {
+                List<Task> tasks;
+                int generation;
+                synchronized (this) {
+                    while (_tasks == null) {
+                        wait();
+                    }
+                    tasks = _tasks;
+                    _tasks = null;
+                    generation = _generation;
+                }
+                resync(tasks, generation);
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Resync thread terminated");
+        }
+    }
+
+    private void resync(List<Task> tasks, int generation) throws InterruptedException {
+        long maxStartDelay = _maxStartDelayMillis;
+        if (maxStartDelay > 0) {
+            Thread.sleep((long) (_random.nextDouble() * maxStartDelay));
+        }
+        for (Task task : tasks) {
+            if (generation != currentGeneration()) {
+                return;
+            }
+            run(task);
+            done(generation);
+            int rate = _rate;
+            if (rate > 0) {
+                // randomized around the mean gap, so the rate holds on average
+                Thread.sleep((long) ((0.5 + _random.nextDouble()) * 1000 / rate));
+            }
+        }
+    }
+
+    private void run(Task task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOG.error("Failed to resync " + task._path, e);
+        }
+    }
+
+    private synchronized int currentGeneration() {
+        return _generation;
+    }
+
+    private synchronized void done(int generation) {
+        if (generation != _generation) {
+            return;
+        }
+        _done++;
+        if (_done == _total) {
+            _finishedAt = System.currentTimeMillis();
+            LOG.info("Resynced " + _total + " watched paths in " + (_finishedAt - _startedAt) + " ms");
+        }
+    }
+
+    synchronized ZkResyncStats getStats() {
+        boolean running = _done < _total;
+        long end = running ? System.currentTimeMillis() : _finishedAt;
+        return new ZkResyncStats(_resyncs, _total, _done, running, _resyncs > 0 ? end - _startedAt : 0);
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+/**
+ * A snapshot of the progress of the last resync of the watched paths after a session expiration.
+ *
+ * @see ZkClient#getResyncStats()
+ * @since 2.3
+ */
+public class ZkResyncStats {
+
+    static final ZkResyncStats EMPTY = new ZkResyncStats(0, 0, 0, false, 0);
+
+    private final long _resyncs;
+
+    private final int _total;
+
+    private final int _done;
+
+    private final boolean _running;
+
+    private final long _durationMillis;
+
+    ZkResyncStats(long resyncs, int total, int done, boolean running, long durationMillis) {
+        _resyncs = resyncs;
+        _total = total;
+        _done = done;
+        _running = running;
+        _durationMillis = durationMillis;
+    }
+
+    /**
+     * @return number of resyncs started since the client connected
+     */
+    public long getResyncs() {
+        return _resyncs;
+    }
+
+    /**
+     * @return number of paths of the last resync
+     */
+    public int getTotal() {
+        return _total;
+    }
+
+    /**
+     * @return number of paths already resynced
+     */
+    public int getDone() {
+        return _done;
+    }
+
+    /**
+     * @return true while the last resync is not finished
+     */
+    public boolean isRunning() {
+        return _running;
+    }
+
+    /**
+     * @return the duration of the last resync, up to now if it is still running
+     */
+    public long getDurationMillis() {
+        return _durationMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ZkResyncStats[resyncs=" + _resyncs + ", done=" + _done + "/" + _total + ", running=" + _running
+                + ", durationMillis=" + _durationMillis + "]";
+    }
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import java.util.Random;
+
+/**
+ * Decides how {@link ZkClient#retryUntilConnected(java.util.concurrent.Callable)} retries an
+ * operation failed with a connection loss or an expired session.
+ * <pre>
+ * // at most 5 retries, 100ms, 200ms, 400ms... apart, and never longer than 3 seconds in total
+ * client.setRetryPolicy(new ZkRetryPolicy(5, 100, 2000, 3000));
+ * </pre>
+ * The delays are randomized between half and the full delay, so the clients of an ensemble
+ * coming back do not retry in lockstep. When the policy gives up a
+ * {@link com.github.zkclient.exception.ZkTimeoutException} is thrown. Subclasses may override
+ * {@link #getDelayMillis(int, long)} and {@link #getMaxWaitMillis(long)} for other rules.
+ *
+ * @see ZkClient#setRetryPolicy(ZkRetryPolicy)
+ * @see ZkClient#retryUntilConnected(java.util.concurrent.Callable, ZkRetryPolicy)
+ * @since 2.3
+ */
+public class ZkRetryPolicy {
+
+    /**
+     * retry for ever as soon as the client is connected again, the default
+     */
+    public static final ZkRetryPolicy UNTIL_CONNECTED = new ZkRetryPolicy(Integer.MAX_VALUE, 0, 0, 0);
+
+    private final int _maxRetries;
+
+    private final long _baseDelayMillis;
+
+    private final long _maxDelayMillis;
+
+    private final long _deadlineMillis;
+
+    private final Random _random = new Random();
+
+    /**
+     * @param maxRetries      maximal number of retries after the first attempt
+     * @param baseDelayMillis the delay before the first retry, doubled for each further retry
+     * @param maxDelayMillis  the maximal delay between two attempts
+     * @param deadlineMillis  maximal time from the first attempt until giving up, or 0 for no limit
+     */
+    public ZkRetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis, long deadlineMillis) {
+        if (maxRetries < 0 || baseDelayMillis < 0 || maxDelayMillis < 0 || deadlineMillis < 0) {
+            throw new IllegalArgumentException("retries, delays and deadline must not be negative.");
+        }
+        _maxRetries = maxRetries;
+        _baseDelayMillis = baseDelayMillis;
+        _maxDelayMillis = Math.max(baseDelayMillis, maxDelayMillis);
+        _deadlineMillis = deadlineMillis;
+    }
+
+    /**
+     * @param retries       the number of the retry, 1 for the first
+     * @param elapsedMillis the time since the first attempt
+     * @return the time to sleep before the retry, or a negative value to give up
+     */
+    public long getDelayMillis(int retries, long elapsedMillis) {
+        if (retries > _maxRetries) {
+            return -1;
+        }
+        long remaining = _deadlineMillis > 0 ? _deadlineMillis - elapsedMillis : Long.MAX_VALUE;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int shift = retries - 1;
+        // doubling until the maximum, without overflowing
+        long delay = shift < Long.numberOfLeadingZeros(_baseDelayMillis) - 1
+                ? Math.min(_maxDelayMillis, _baseDelayMillis << shift) : _maxDelayMillis;
+        if (delay > 1) {
+            delay = delay / 2 + (long) (_random.nextDouble() * (delay / 2));
+        }
+        return Math.min(delay, remaining);
+    }
+
+    /**
+     * @param elapsedMillis the time since the first attempt
+     * @return the maximal time to wait for the connection before the retry
+     */
+    public long getMaxWaitMillis(long elapsedMillis) {
+        if (_deadlineMillis > 0) {
+            return Math.max(0, _deadlineMillis - elapsedMillis);
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "ZkRetryPolicy[maxRetries=" + _maxRetries + ", baseDelay=" + _baseDelayMillis + "ms, maxDelay="
+                + _maxDelayMillis + "ms, deadline=" + _deadlineMillis + "ms]";
+    }
+}
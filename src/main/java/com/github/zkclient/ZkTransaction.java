@@ -0,0 +1,214 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.Op;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.ZooDefs.Ids;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A builder for a zookeeper transaction.
+ * <p>
+ * <pre>
+ * List&lt;OpResult&gt; results = client.transaction()
+ *         .check("/config", version)
+ *         .create("/config/a", data, CreateMode.PERSISTENT)
+ *         .delete("/config/b")
+ *         .commit();
+ * </pre>
+ * </p>
+ * <p>
+ * A transaction is sent in one request, which the server rejects if it is larger than
+ * 'jute.maxbuffer'. {@link #commitInChunks()} splits a large transaction into smaller ones for
+ * operations which need not be atomic as a whole.
+ * </p>
+ * <p>
+ * A builder is not thread safe.
+ * </p>
+ *
+ * @see IZkClient#transaction()
+ * @since 2.3
+ */
+public class ZkTransaction {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * request header, multi header and the acl of a create per operation, roughly
+     */
+    private static final int OP_OVERHEAD = 64;
+
+    private static final int MARGIN = 1024;
+
+    private final ZkClient _client;
+
+    private final List<Op> _ops = new ArrayList<Op>();
+
+    // the estimated size of each operation
+    private final List<Integer> _sizes = new ArrayList<Integer>();
+
+    private int _bytes;
+
+    ZkTransaction(ZkClient client) {
+        _client = client;
+    }
+
+    public ZkTransaction create(String path, byte[] data, CreateMode mode) {
+        return add(Op.create(path, data, Ids.OPEN_ACL_UNSAFE, mode), path, data);
+    }
+
+    public ZkTransaction delete(String path) {
+        return delete(path, -1);
+    }
+
+    public ZkTransaction delete(String path, int version) {
+        return add(Op.delete(path, version), path, null);
+    }
+
+    public ZkTransaction setData(String path, byte[] data) {
+        return setData(path, data, -1);
+    }
+
+    public ZkTransaction setData(String path, byte[] data, int version) {
+        return add(Op.setData(path, data, version), path, data);
+    }
+
+    /**
+     * check the version of a node as part of the transaction
+     *
+     * @param path    the path for the node
+     * @param version the expected version of the node
+     * @return this builder
+     */
+    public ZkTransaction check(String path, int version) {
+        return add(Op.check(path, version), path, null);
+    }
+
+    private ZkTransaction add(Op op, String path, byte[] data) {
+        int size = estimate(path, data);
+        _ops.add(op);
+        _sizes.add(size);
+        _bytes += size;
+        return this;
+    }
+
+    /**
+     * @return the operations added so far
+     */
+    public List<Op> getOps() {
+        return Collections.unmodifiableList(_ops);
+    }
+
+    public int size() {
+        return _ops.size();
+    }
+
+    /**
+     * @return the estimated size of the transaction request in bytes
+     */
+    public int getEstimatedBytes() {
+        return _bytes;
+    }
+
+    /**
+     * Commit all operations atomically.
+     *
+     * @return the results of the operations, in order
+     * @throws com.github.zkclient.exception.ZkException the failure of the first failed operation;
+     *         its cause is the {@link org.apache.zookeeper.KeeperException} with the results of all operations
+     * @throws IllegalStateException if the transaction is too large for one request
+     */
+    public List<OpResult> commit() {
+        if (_ops.isEmpty()) {
+            return new ArrayList<OpResult>();
+        }
+        int maxBytes = getMaxBytes();
+        if (_bytes > maxBytes) {
+            throw new IllegalStateException("The transaction of " + _ops.size() + " operations has about " + _bytes
+                    + " bytes, more than the " + maxBytes + " bytes of jute.maxbuffer allow");
+        }
+        return _client.multi(_ops);
+    }
+
+    /**
+     * Commit all operations atomically with the callback api.
+     *
+     * @return the results of the operations, in order
+     * @see #commit()
+     */
+    public ZkFuture<List<OpResult>> commitAsync() {
+        return _client.multiAsync(new ArrayList<Op>(_ops));
+    }
+
+    /**
+     * Commit the operations in transactions no larger than 'jute.maxbuffer' allows.
+     *
+     * @return the results of the operations, in order
+     * @see #commitInChunks(int)
+     */
+    public List<OpResult> commitInChunks() {
+        return commitInChunks(getMaxBytes());
+    }
+
+    /**
+     * Commit the operations in consecutive transactions of at most about maxBytes each.
+     * <p>
+     * Each chunk is atomic, the operations as a whole are not: if a chunk fails, the chunks before
+     * it stay committed and the chunks after it are not sent.
+     * </p>
+     *
+     * @param maxBytes the maximum estimated size of a chunk
+     * @return the results of the operations, in order
+     * @throws com.github.zkclient.exception.ZkException the failure of the first failed operation
+     */
+    public List<OpResult> commitInChunks(int maxBytes) {
+        List<OpResult> results = new ArrayList<OpResult>(_ops.size());
+        List<Op> chunk = new ArrayList<Op>();
+        int bytes = 0;
+        for (int i = 0; i < _ops.size(); i++) {
+            int size = _sizes.get(i);
+            if (!chunk.isEmpty() && bytes + size > maxBytes) {
+                results.addAll(_client.multi(chunk));
+                chunk = new ArrayList<Op>();
+                bytes = 0;
+            }
+            chunk.add(_ops.get(i));
+            bytes += size;
+        }
+        if (!chunk.isEmpty()) {
+            results.addAll(_client.multi(chunk));
+        }
+        return results;
+    }
+
+    static int estimate(String path, byte[] data) {
+        return OP_OVERHEAD + path.getBytes(UTF8).length + (data != null ? data.length : 0);
+    }
+
+    /**
+     * @return the largest transaction accepted by the server, assuming it uses the same
+     *         'jute.maxbuffer' as this client
+     */
+    static int getMaxBytes() {
+        return Integer.getInteger("jute.maxbuffer", 0xfffff) - MARGIN;
+    }
+}
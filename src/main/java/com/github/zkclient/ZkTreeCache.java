@@ -0,0 +1,897 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A local copy of all nodes below a root path.
+ * <p>
+ * Every node of the tree has a data and a child watch. The tree is loaded level by level, each
+ * level with pipelined requests, so a large tree loads in a few round trips per level instead of
+ * two per node. A new subtree is loaded the same way.
+ * </p>
+ * <p>
+ * {@link #getSnapshot()} returns an immutable {@link ZkTreeNode}; a change replaces only the
+ * changed node and its ancestors, so taking a snapshot is free and readers never see a half
+ * applied change.
+ * </p>
+ * <p>
+ * A {@link ZkOffHeapStore} keeps the data and stats of a large tree out of the java heap.
+ * </p>
+ * <p>
+ * With {@link #setSnapshot(File, long)} the tree is saved to a local file from time to time. The
+ * next start serves the saved tree at once and reconciles it with the server in the background:
+ * the stats of all nodes are compared and only the data of changed nodes is read again.
+ * {@link #getReadiness()} tells whether the tree is served from the file or fully reconciled.
+ * </p>
+ *
+ * @since 2.3
+ */
+public class ZkTreeCache {
+
+    /**
+     * How up to date the served tree is.
+     */
+    public enum Readiness {
+        /**
+         * not started, nothing to serve
+         */
+        NOT_READY,
+        /**
+         * serving the tree saved by a former run, not yet compared with the server
+         */
+        SNAPSHOT,
+        /**
+         * serving the tree loaded from or reconciled with the server, kept up to date by watches
+         */
+        RECONCILED
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(ZkTreeCache.class);
+
+    private final ZkClient _client;
+
+    private final String _path;
+
+    private final int _maxInFlight;
+
+    private final ZkOffHeapStore _store;
+
+    private volatile ZkTreeNode _root;
+
+    private volatile boolean _started;
+
+    private volatile Readiness _readiness = Readiness.NOT_READY;
+
+    private volatile CountDownLatch _reconciled = new CountDownLatch(1);
+
+    private File _snapshotFile;
+
+    private long _snapshotIntervalMillis;
+
+    private Thread _snapshotThread;
+
+    private Thread _reconcileThread;
+
+    // the latest event per path and kind seen while loading or reconciling, oldest first, replayed
+    // on the loaded nodes; null otherwise
+    private LinkedHashMap<String, Seen> _seen;
+
+    private long _seenSeq;
+
+    // loads and reconciles in flight
+    private int _recorders;
+
+    private boolean _replaying;
+
+    private final Object _snapshotLock = new Object();
+
+    // the last saved tree
+    private ZkTreeNode _saved;
+
+    private final IZkChildListener _childListener = new IZkChildListener() {
+
+        @Override
+        public void handleChildChange(String parentPath, List<String> currentChilds) throws Exception {
+            childrenChanged(parentPath, currentChilds);
+        }
+    };
+
+    private final IZkDataStatListener _dataListener = new IZkDataStatListener() {
+
+        @Override
+        public void handleDataChange(String dataPath, byte[] data, Stat stat) throws Exception {
+            dataChanged(dataPath, new ZkData(data, stat));
+        }
+
+        @Override
+        public void handleDataChange(String dataPath, byte[] data) throws Exception {
+            // not called for an IZkDataStatListener
+        }
+
+        @Override
+        public void handleDataDeleted(String dataPath) throws Exception {
+            deleted(dataPath);
+        }
+    };
+
+    public ZkTreeCache(ZkClient client, String path) {
+        this(client, path, IZkClient.DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param client      the client
+     * @param path        the root path of the tree
+     * @param maxInFlight maximal number of unanswered requests while loading
+     */
+    public ZkTreeCache(ZkClient client, String path, int maxInFlight) {
+        this(client, path, maxInFlight, null);
+    }
+
+    /**
+     * @param client      the client
+     * @param path        the root path of the tree
+     * @param maxInFlight maximal number of unanswered requests while loading
+     * @param store       where to keep the data and stats, or null to keep them on the heap
+     */
+    public ZkTreeCache(ZkClient client, String path, int maxInFlight, ZkOffHeapStore store) {
+        if (client == null || path == null) {
+            throw new NullPointerException("client and path must not be null.");
+        }
+        _client = client;
+        _path = path;
+        _maxInFlight = maxInFlight;
+        _store = store;
+    }
+
+    /**
+     * Save the tree to a file every interval and on {@link #close()}, and serve the saved tree on
+     * the next {@link #start()}. Must be called before starting.
+     *
+     * @param file           the snapshot file, or null to not save the tree
+     * @param intervalMillis the time between two saves; the tree is only saved if it changed
+     */
+    public synchronized void setSnapshot(File file, long intervalMillis) {
+        if (_started) {
+            throw new IllegalStateException("The cache is started already.");
+        }
+        _snapshotFile = file;
+        _snapshotIntervalMillis = intervalMillis;
+    }
+
+    /**
+     * Subscribe to the root and load the tree.
+     * <p>
+     * If a snapshot file exists the saved tree is served at once and reconciled with the server by
+     * a background thread; see {@link #awaitReconciled(long, TimeUnit)}.
+     * </p>
+     */
+    public synchronized void start() {
+        if (_started) {
+            return;
+        }
+        _started = true;
+        _reconciled = new CountDownLatch(1);
+        // the root is watched even if it does not exist, to notice its creation
+        _client.subscribeDataChanges(_path, _dataListener);
+        _client.subscribeChildChanges(_path, _childListener);
+        final Map<String, ZkData> snapshot = readSnapshot();
+        if (snapshot != null) {
+            _root = build(_path, snapshot, ZkTreeSnapshot.children(_path, snapshot));
+            _saved = _root;
+            _readiness = Readiness.SNAPSHOT;
+            LOG.info("Serving " + snapshot.size() + " nodes below " + _path + " from " + _snapshotFile);
+            _reconcileThread = new Thread("ZkTreeCache-reconcile-" + _path) {
+
+                @Override
+                public void run() {
+                    boolean internal = _client.beginInternalCall();
+                    try {
+                        reconcile(snapshot);
+                    } catch (RuntimeException e) {
+                        if (_started) {
+                            LOG.error("Reconciling " + _path + " with the server failed, still serving the snapshot", e);
+                        }
+                    } finally {
+                        _client.endInternalCall(internal);
+                    }
+                }
+            };
+            _reconcileThread.setDaemon(true);
+            _reconcileThread.start();
+        } else {
+            long startTime = System.currentTimeMillis();
+            _root = load(Collections.singletonList(_path)).get(_path);
+            setReconciled();
+            LOG.info("Loaded " + (_root != null ? _root.size() : 0) + " nodes below " + _path + " in "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+        }
+        if (_snapshotFile != null && _snapshotIntervalMillis > 0) {
+            _snapshotThread = new Thread("ZkTreeCache-snapshot-" + _path) {
+
+                @Override
+                public void run() {
+                    try {
+                        while (!isInterrupted()) {
+                            Thread.sleep(_snapshotIntervalMillis);
+                            saveSnapshot();
+                        }
+                    } catch (InterruptedException e) {
+                        // closed
+                    }
+                }
+            };
+            _snapshotThread.setDaemon(true);
+            _snapshotThread.start();
+        }
+    }
+
+    /**
+     * Unsubscribe from all nodes. The last snapshot stays readable.
+     */
+    public synchronized void close() {
+        if (!_started) {
+            return;
+        }
+        _started = false;
+        if (_reconcileThread != null) {
+            _reconcileThread.interrupt();
+            _reconcileThread = null;
+        }
+        if (_snapshotThread != null) {
+            _snapshotThread.interrupt();
+            _snapshotThread = null;
+        }
+        saveSnapshot();
+        _readiness = Readiness.NOT_READY;
+        ZkTreeNode root = _root;
+        if (root != null) {
+            unsubscribe(root);
+            release(root);
+        }
+        unsubscribe(_path);
+    }
+
+    /**
+     * @return the root of the current snapshot, or null if the root does not exist
+     */
+    public ZkTreeNode getSnapshot() {
+        return _root;
+    }
+
+    /**
+     * @param path the full path of a node below the root
+     * @return the node in the current snapshot, or null if it does not exist
+     */
+    public ZkTreeNode getNode(String path) {
+        return find(_root, path);
+    }
+
+    /**
+     * @return whether the served tree comes from the snapshot file or the server
+     */
+    public Readiness getReadiness() {
+        return _readiness;
+    }
+
+    /**
+     * Wait until the tree is loaded from or reconciled with the server.
+     *
+     * @param time the maximal time to wait
+     * @param unit the unit of the time
+     * @return true if the tree is reconciled, false on timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitReconciled(long time, TimeUnit unit) throws InterruptedException {
+        return _reconciled.await(time, unit);
+    }
+
+    /**
+     * @return the root path of the tree
+     */
+    public String getPath() {
+        return _path;
+    }
+
+    private void childrenChanged(String path, List<String> names) {
+        List<String> added = applyChildren(path, names);
+        if (!added.isEmpty()) {
+            loadAndGraft(added);
+        }
+    }
+
+    /**
+     * Apply a child event to the tree.
+     *
+     * @return the paths of the added children, to be loaded without the lock
+     */
+    private synchronized List<String> applyChildren(String path, List<String> names) {
+        if (!_started) {
+            return Collections.emptyList();
+        }
+        record("children:" + path, new Seen(path, true, names, null));
+        ZkTreeNode node = find(_root, path);
+        if (node == null) {
+            if (path.equals(_path) && names != null) {
+                // the root was created
+                return Collections.singletonList(_path);
+            }
+            return Collections.emptyList();
+        }
+        Set<String> current = names != null ? new HashSet<String>(names) : Collections.<String>emptySet();
+        for (ZkTreeNode child : node.getChildren().values()) {
+            if (!current.contains(child.getName())) {
+                removed(child.getPath());
+            }
+        }
+        List<String> added = new ArrayList<String>();
+        for (String name : current) {
+            if (node.getChild(name) == null) {
+                added.add(childPath(path, name));
+            }
+        }
+        return added;
+    }
+
+    private void dataChanged(String path, ZkData data) {
+        if (applyData(path, data)) {
+            loadAndGraft(Collections.singletonList(_path));
+        }
+    }
+
+    /**
+     * Apply a data event to the tree.
+     *
+     * @return true if the root was created, to be loaded without the lock
+     */
+    private synchronized boolean applyData(String path, ZkData data) {
+        if (!_started) {
+            return false;
+        }
+        record("data:" + path, new Seen(path, false, null, data));
+        ZkTreeNode node = find(_root, path);
+        if (node == null) {
+            // the root was created
+            return path.equals(_path);
+        }
+        if (node.getStat().getMzxid() < data.getStat().getMzxid()) {
+            if (_store != null) {
+                _root = replace(path, node.withData(_store.put(data.getData(), data.getStat())));
+                _store.release(node.getHandle(), node.getPin());
+            } else {
+                _root = replace(path, node.withData(data));
+            }
+        }
+        return false;
+    }
+
+    private synchronized void deleted(String path) {
+        record("data:" + path, new Seen(path, false, null, null));
+        removed(path);
+    }
+
+    private synchronized void removed(String path) {
+        ZkTreeNode node = find(_root, path);
+        if (node == null) {
+            return;
+        }
+        unsubscribe(node);
+        _root = replace(path, null);
+        release(node);
+    }
+
+    /**
+     * Load the subtrees without the lock, so the events of other paths go on meanwhile, and graft
+     * them onto the tree current by then. The events seen while loading are replayed on them.
+     */
+    private void loadAndGraft(List<String> paths) {
+        long since;
+        synchronized (this) {
+            if (!_started) {
+                return;
+            }
+            since = startRecording();
+        }
+        try {
+            while (!paths.isEmpty()) {
+                Map<String, ZkTreeNode> subtrees = load(paths);
+                synchronized (this) {
+                    if (!_started) {
+                        for (ZkTreeNode subtree : subtrees.values()) {
+                            unsubscribe(subtree);
+                            release(subtree);
+                        }
+                        return;
+                    }
+                    graft(subtrees);
+                    long next = _seenSeq;
+                    paths = replay(subtrees.keySet(), since);
+                    since = next;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                stopRecording();
+            }
+        }
+    }
+
+    /**
+     * Record the events from now on.
+     *
+     * @return the sequence number of the last event seen before
+     */
+    private long startRecording() {
+        if (_recorders++ == 0) {
+            _seen = new LinkedHashMap<String, Seen>();
+        }
+        return _seenSeq;
+    }
+
+    private void stopRecording() {
+        if (--_recorders == 0) {
+            _seen = null;
+        }
+    }
+
+    private void record(String key, Seen seen) {
+        if (_seen != null && !_replaying) {
+            seen._seq = ++_seenSeq;
+            // moved to the end, the events stay in the order they were seen
+            _seen.remove(key);
+            _seen.put(key, seen);
+        }
+    }
+
+    /**
+     * Apply the events seen after the sequence number again, in the order they were seen, to the
+     * nodes at or below the roots, which were read without them.
+     *
+     * @param roots the roots of the replaced subtrees, or null for the whole tree
+     * @return the paths of the children added by the events, to be loaded
+     */
+    private List<String> replay(Collection<String> roots, long since) {
+        List<String> added = new ArrayList<String>();
+        _replaying = true;
+        try {
+            for (Seen seen : new ArrayList<Seen>(_seen.values())) {
+                if (seen._seq <= since || !below(seen._path, roots)) {
+                    continue;
+                }
+                if (seen._children) {
+                    added.addAll(applyChildren(seen._path, seen._names));
+                } else if (seen._data == null) {
+                    removed(seen._path);
+                } else if (applyData(seen._path, seen._data)) {
+                    added.add(_path);
+                }
+            }
+        } finally {
+            _replaying = false;
+        }
+        return added;
+    }
+
+    private static boolean below(String path, Collection<String> roots) {
+        if (roots == null) {
+            return true;
+        }
+        for (String root : roots) {
+            if (path.equals(root) || path.startsWith("/".equals(root) ? root : root + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Load the subtrees below the paths, level by level with pipelined requests. The listeners are
+     * registered first, so the reads set the watches.
+     *
+     * @return the loaded subtrees by path; missing nodes are left out
+     */
+    private Map<String, ZkTreeNode> load(List<String> paths) {
+        // also while the circuit breaker is half open, else the subtrees are never loaded
+        boolean internal = _client.beginInternalCall();
+        try {
+            return load0(paths);
+        } finally {
+            _client.endInternalCall(internal);
+        }
+    }
+
+    private Map<String, ZkTreeNode> load0(List<String> paths) {
+        Map<String, ZkData> datas = new HashMap<String, ZkData>();
+        Map<String, List<String>> children = new HashMap<String, List<String>>();
+        List<String> level = paths;
+        while (!level.isEmpty()) {
+            for (String path : level) {
+                _client.addDataListener(path, _dataListener);
+                _client.addChildListener(path, _childListener);
+            }
+            Map<String, ZkData> levelData = _client.readData(level, _maxInFlight);
+            Map<String, List<String>> levelChildren = _client.getChildren(level, _maxInFlight);
+            List<String> nextLevel = new ArrayList<String>();
+            for (String path : level) {
+                ZkData data = levelData.get(path);
+                List<String> names = levelChildren.get(path);
+                if (data == null || names == null) {
+                    // deleted in between
+                    if (!path.equals(_path)) {
+                        unsubscribe(path);
+                    }
+                    continue;
+                }
+                datas.put(path, data);
+                children.put(path, names);
+                for (String name : names) {
+                    nextLevel.add(childPath(path, name));
+                }
+            }
+            level = nextLevel;
+        }
+        Map<String, ZkTreeNode> result = new HashMap<String, ZkTreeNode>();
+        for (String path : paths) {
+            if (datas.containsKey(path)) {
+                result.put(path, build(path, datas, children));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Compare the snapshot with the server level by level, like {@link #load(List)}, but with stats
+     * instead of data. The data of a node is read only if it was modified after the snapshot.
+     * <p>
+     * The reads run without the lock of the cache, so events keep being applied to the served
+     * tree meanwhile. They are also recorded and replayed on the reconciled tree when it replaces
+     * the served one; the mzxid check of {@link #applyData(String, ZkData)} drops data older
+     * than the reconciled.
+     * </p>
+     */
+    private void reconcile(Map<String, ZkData> snapshot) {
+        long since;
+        synchronized (this) {
+            if (!_started || _readiness != Readiness.SNAPSHOT) {
+                return;
+            }
+            since = startRecording();
+        }
+        List<String> subscribed = new ArrayList<String>();
+        try {
+            List<String> added = reconcile0(snapshot, subscribed, since);
+            if (added == null) {
+                return;
+            }
+            // children added by the replayed events, still recording
+            loadAndGraft(added);
+            synchronized (this) {
+                if (_started) {
+                    setReconciled();
+                }
+            }
+        } finally {
+            synchronized (this) {
+                stopRecording();
+            }
+            if (!_started) {
+                // closed meanwhile, drop the listeners close() did not know of
+                for (String path : subscribed) {
+                    unsubscribe(path);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the paths of the children added by the replayed events, to be loaded; null if closed
+     */
+    private List<String> reconcile0(Map<String, ZkData> snapshot, List<String> subscribed, long since) {
+        long startTime = System.currentTimeMillis();
+        Map<String, ZkData> datas = new HashMap<String, ZkData>();
+        Map<String, List<String>> children = new HashMap<String, List<String>>();
+        int fetched = 0;
+        List<String> level = Collections.singletonList(_path);
+        while (!level.isEmpty()) {
+            if (!_started) {
+                return null;
+            }
+            for (String path : level) {
+                _client.addDataListener(path, _dataListener);
+                _client.addChildListener(path, _childListener);
+            }
+            subscribed.addAll(level);
+            Map<String, Stat> levelStats = _client.stat(level, _maxInFlight);
+            Map<String, List<String>> levelChildren = _client.getChildren(level, _maxInFlight);
+            List<String> modified = new ArrayList<String>();
+            List<String> nextLevel = new ArrayList<String>();
+            for (String path : level) {
+                Stat stat = levelStats.get(path);
+                List<String> names = levelChildren.get(path);
+                if (stat == null || names == null) {
+                    // deleted in between
+                    if (!path.equals(_path)) {
+                        unsubscribe(path);
+                    }
+                    continue;
+                }
+                ZkData saved = snapshot.get(path);
+                if (saved != null && saved.getStat().getMzxid() == stat.getMzxid()) {
+                    datas.put(path, new ZkData(saved.getData(), stat));
+                } else {
+                    modified.add(path);
+                }
+                children.put(path, names);
+                for (String name : names) {
+                    nextLevel.add(childPath(path, name));
+                }
+            }
+            if (!modified.isEmpty()) {
+                fetched += modified.size();
+                Map<String, ZkData> levelData = _client.readData(modified, _maxInFlight);
+                for (String path : modified) {
+                    ZkData data = levelData.get(path);
+                    if (data != null) {
+                        datas.put(path, data);
+                    } else if (!path.equals(_path)) {
+                        unsubscribe(path);
+                    }
+                }
+            }
+            level = nextLevel;
+        }
+        ZkTreeNode reconciled = datas.containsKey(_path) ? build(_path, datas, children) : null;
+        List<String> added;
+        synchronized (this) {
+            if (!_started) {
+                if (reconciled != null) {
+                    release(reconciled);
+                }
+                return null;
+            }
+            ZkTreeNode old = _root;
+            _root = reconciled;
+            if (old != null) {
+                // nodes gone since the snapshot, or added by an event before reconciling
+                unsubscribeMissing(old);
+                release(old);
+            }
+            added = replay(null, since);
+        }
+        LOG.info("Reconciled " + datas.size() + " nodes below " + _path + " with the server in "
+                + (System.currentTimeMillis() - startTime) + " ms, read the data of " + fetched);
+        return added;
+    }
+
+    private void setReconciled() {
+        _readiness = Readiness.RECONCILED;
+        _reconciled.countDown();
+    }
+
+    private void unsubscribeMissing(ZkTreeNode node) {
+        for (ZkTreeNode child : node.getChildren().values()) {
+            unsubscribeMissing(child);
+        }
+        if (find(_root, node.getPath()) == null && !node.getPath().equals(_path)) {
+            unsubscribe(node.getPath());
+        }
+    }
+
+    private Map<String, ZkData> readSnapshot() {
+        if (_snapshotFile == null || !_snapshotFile.exists()) {
+            return null;
+        }
+        try {
+            Map<String, ZkData> snapshot = ZkTreeSnapshot.read(_snapshotFile);
+            if (snapshot == null || !snapshot.containsKey(_path)) {
+                LOG.warn("Ignoring " + _snapshotFile + ", not a snapshot of " + _path);
+                return null;
+            }
+            return snapshot;
+        } catch (IOException e) {
+            LOG.warn("Unable to read the snapshot " + _snapshotFile, e);
+        } catch (RuntimeException e) {
+            // truncated or corrupt
+            LOG.warn("Unable to read the snapshot " + _snapshotFile, e);
+        }
+        return null;
+    }
+
+    /**
+     * Save the tree if it changed since the last save.
+     */
+    private void saveSnapshot() {
+        if (_snapshotFile == null) {
+            return;
+        }
+        synchronized (_snapshotLock) {
+            ZkTreeNode root = _root;
+            if (root == null || root == _saved) {
+                return;
+            }
+            try {
+                ZkTreeSnapshot.write(_snapshotFile, root);
+                _saved = root;
+            } catch (IOException e) {
+                LOG.warn("Unable to save the snapshot " + _snapshotFile, e);
+            }
+        }
+    }
+
+    private ZkTreeNode build(String path, Map<String, ZkData> datas, Map<String, List<String>> children) {
+        SortedMap<String, ZkTreeNode> nodes = new TreeMap<String, ZkTreeNode>();
+        for (String name : children.get(path)) {
+            String child = childPath(path, name);
+            if (datas.containsKey(child)) {
+                nodes.put(name, build(child, datas, children));
+            }
+        }
+        ZkData data = datas.get(path);
+        if (_store != null) {
+            return new ZkTreeNode(path, _store, _store.put(data.getData(), data.getStat()), nodes);
+        }
+        return new ZkTreeNode(path, data, nodes);
+    }
+
+    private void graft(Map<String, ZkTreeNode> subtrees) {
+        for (Map.Entry<String, ZkTreeNode> e : subtrees.entrySet()) {
+            String path = e.getKey();
+            if (!path.equals(_path) && find(_root, ZkClient.getParent(path)) == null) {
+                // the parent was removed while loading
+                unsubscribe(e.getValue());
+                release(e.getValue());
+                continue;
+            }
+            // a node loaded meanwhile, e.g. by the reconcile, is replaced; the events since are replayed
+            ZkTreeNode old = find(_root, path);
+            _root = replace(path, e.getValue());
+            if (old != null) {
+                unsubscribeMissing(old);
+                release(old);
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the tree with the node at the path replaced, sharing all other nodes
+     */
+    private ZkTreeNode replace(String path, ZkTreeNode replacement) {
+        if (path.equals(_path)) {
+            return replacement;
+        }
+        return replace(_root, segments(path), 0, replacement);
+    }
+
+    private static ZkTreeNode replace(ZkTreeNode node, String[] names, int index, ZkTreeNode replacement) {
+        String name = names[index];
+        if (index == names.length - 1) {
+            return node.withChild(name, replacement);
+        }
+        ZkTreeNode child = node.getChild(name);
+        if (child == null) {
+            return node;
+        }
+        return node.withChild(name, replace(child, names, index + 1, replacement));
+    }
+
+    private ZkTreeNode find(ZkTreeNode root, String path) {
+        if (root == null) {
+            return null;
+        }
+        if (path.equals(_path)) {
+            return root;
+        }
+        if (!"/".equals(_path) && !path.startsWith(_path + "/")) {
+            return null;
+        }
+        ZkTreeNode node = root;
+        for (String name : segments(path)) {
+            node = node.getChild(name);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    /**
+     * @return the names from the root to the path, e.g. [b, c] for /a/b/c below /a
+     */
+    private String[] segments(String path) {
+        String relative = "/".equals(_path) ? path.substring(1) : path.substring(_path.length() + 1);
+        return relative.split("/");
+    }
+
+    private void unsubscribe(ZkTreeNode node) {
+        for (ZkTreeNode child : node.getChildren().values()) {
+            unsubscribe(child);
+        }
+        if (!node.getPath().equals(_path) || !_started) {
+            unsubscribe(node.getPath());
+        }
+    }
+
+    /**
+     * Release the off-heap records of the subtree. Snapshots taken before keep them as long as
+     * they are reachable.
+     */
+    private void release(ZkTreeNode node) {
+        if (_store == null) {
+            return;
+        }
+        for (ZkTreeNode child : node.getChildren().values()) {
+            release(child);
+        }
+        _store.release(node.getHandle(), node.getPin());
+    }
+
+    private void unsubscribe(String path) {
+        _client.unsubscribeDataChanges(path, _dataListener);
+        _client.unsubscribeChildChanges(path, _childListener);
+    }
+
+    private static String childPath(String parent, String name) {
+        return "/".equals(parent) ? "/" + name : parent + "/" + name;
+    }
+
+    @Override
+    public String toString() {
+        return "ZkTreeCache[" + _path + "]";
+    }
+
+    /**
+     * An event seen while loading or reconciling.
+     */
+    private static final class Seen {
+
+        private final String _path;
+
+        private final boolean _children;
+
+        private final List<String> _names;
+
+        // null for a deletion
+        private final ZkData _data;
+
+        private long _seq;
+
+        Seen(String path, boolean children, List<String> names, ZkData data) {
+            _path = path;
+            _children = children;
+            _names = names;
+            _data = data;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An immutable node of a {@link ZkTreeCache} snapshot.
+ * <p>
+ * A change of the tree copies only the changed node and its ancestors; all other nodes are shared
+ * between the old and the new snapshot. A snapshot can therefore be iterated without locking while
+ * changes stream in.
+ * </p>
+ * <p>
+ * With a {@link ZkOffHeapStore} the data and stat live in the store, and {@link #getData()} and
+ * {@link #getStat()} return copies. The record stays in the store as long as the node is
+ * reachable, so a snapshot can be kept as long as needed.
+ * </p>
+ *
+ * @since 2.3
+ */
+public final class ZkTreeNode {
+
+    private final String _path;
+
+    // null if stored off-heap
+    private final ZkData _data;
+
+    private final ZkOffHeapStore _store;
+
+    private final long _handle;
+
+    // shared by the copies of the node with the same record, the store keeps the record while reachable
+    private final Object _pin;
+
+    // never modified after construction
+    private final SortedMap<String, ZkTreeNode> _children;
+
+    ZkTreeNode(String path, ZkData data, SortedMap<String, ZkTreeNode> children) {
+        this(path, data, null, 0, null, children);
+    }
+
+    ZkTreeNode(String path, ZkOffHeapStore store, long handle, SortedMap<String, ZkTreeNode> children) {
+        this(path, null, store, handle, new Object(), children);
+    }
+
+    private ZkTreeNode(String path, ZkData data, ZkOffHeapStore store, long handle, Object pin,
+                       SortedMap<String, ZkTreeNode> children) {
+        _path = path;
+        _data = data;
+        _store = store;
+        _handle = handle;
+        _pin = pin;
+        _children = children;
+    }
+
+    /**
+     * @return the full path of the node
+     */
+    public String getPath() {
+        return _path;
+    }
+
+    /**
+     * @return the name of the node, empty for the root "/"
+     */
+    public String getName() {
+        return _path.substring(_path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * @return the data and stat of the node
+     */
+    public ZkData getData() {
+        if (_store == null) {
+            return _data;
+        }
+        return _store.get(_handle);
+    }
+
+    /**
+     * @return a read-only view of the data of the node, or null for null data; with a
+     *         {@link ZkOffHeapStore} only valid while this node is reachable
+     */
+    public ByteBuffer getDataBuffer() {
+        if (_store != null) {
+            return _store.getData(_handle);
+        }
+        byte[] data = _data.getData();
+        return data != null ? ByteBuffer.wrap(data).asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * @return the stat of the node
+     */
+    public Stat getStat() {
+        return _store != null ? _store.getStat(_handle) : _data.getStat();
+    }
+
+    long getHandle() {
+        return _handle;
+    }
+
+    Object getPin() {
+        return _pin;
+    }
+
+    /**
+     * @return the children by name, sorted
+     */
+    public SortedMap<String, ZkTreeNode> getChildren() {
+        return Collections.unmodifiableSortedMap(_children);
+    }
+
+    /**
+     * @param name the name of the child
+     * @return the child or null
+     */
+    public ZkTreeNode getChild(String name) {
+        return _children.get(name);
+    }
+
+    /**
+     * @return the number of nodes of the subtree including this node
+     */
+    public int size() {
+        int size = 1;
+        for (ZkTreeNode child : _children.values()) {
+            size += child.size();
+        }
+        return size;
+    }
+
+    ZkTreeNode withData(ZkData data) {
+        return new ZkTreeNode(_path, data, null, 0, null, _children);
+    }
+
+    ZkTreeNode withData(long handle) {
+        return new ZkTreeNode(_path, null, _store, handle, new Object(), _children);
+    }
+
+    /**
+     * @param name  the name of the child
+     * @param child the new child, or null to remove the child
+     * @return a copy of this node with the child replaced
+     */
+    ZkTreeNode withChild(String name, ZkTreeNode child) {
+        SortedMap<String, ZkTreeNode> children = new TreeMap<String, ZkTreeNode>(_children);
+        if (child != null) {
+            children.put(name, child);
+        } else {
+            children.remove(name);
+        }
+        return new ZkTreeNode(_path, _data, _store, _handle, _pin, children);
+    }
+
+    @Override
+    public String toString() {
+        return "ZkTreeNode[" + _path + ", version=" + getStat().getVersion() + ", children=" + _children.size() + "]";
+    }
+}
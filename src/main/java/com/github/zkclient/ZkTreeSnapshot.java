@@ -0,0 +1,161 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes a {@link ZkTreeCache} snapshot as a memory-mapped file.
+ * <p>
+ * The file holds a header and the nodes in pre-order, each with its path, stat and data. It is
+ * written to a temporary file first and then renamed, so a crash never leaves a partial snapshot.
+ * </p>
+ *
+ * @since 2.3
+ */
+class ZkTreeSnapshot {
+
+    private static final int MAGIC = 0x5a4b5453;
+
+    private static final int VERSION = 1;
+
+    private static final int STAT_SIZE = 8 + 8 + 8 + 8 + 4 + 4 + 4 + 8 + 4 + 4 + 8;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private ZkTreeSnapshot() {
+    }
+
+    static void write(File file, ZkTreeNode root) throws IOException {
+        List<ZkTreeNode> nodes = new ArrayList<ZkTreeNode>();
+        List<ZkData> datas = new ArrayList<ZkData>();
+        collect(root, nodes, datas);
+        long size = 4 + 4 + 4;
+        for (int i = 0; i < nodes.size(); i++) {
+            byte[] data = datas.get(i).getData();
+            size += 4 + nodes.get(i).getPath().getBytes(UTF8).length + STAT_SIZE + 4 + (data != null ? data.length : 0);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        RandomAccessFile out = new RandomAccessFile(tmp, "rw");
+        try {
+            out.setLength(size);
+            MappedByteBuffer buffer = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(nodes.size());
+            for (int i = 0; i < nodes.size(); i++) {
+                byte[] path = nodes.get(i).getPath().getBytes(UTF8);
+                buffer.putInt(path.length);
+                buffer.put(path);
+                Stat stat = datas.get(i).getStat();
+                buffer.putLong(stat.getCzxid());
+                buffer.putLong(stat.getMzxid());
+                buffer.putLong(stat.getCtime());
+                buffer.putLong(stat.getMtime());
+                buffer.putInt(stat.getVersion());
+                buffer.putInt(stat.getCversion());
+                buffer.putInt(stat.getAversion());
+                buffer.putLong(stat.getEphemeralOwner());
+                buffer.putInt(stat.getDataLength());
+                buffer.putInt(stat.getNumChildren());
+                buffer.putLong(stat.getPzxid());
+                byte[] data = datas.get(i).getData();
+                buffer.putInt(data != null ? data.length : -1);
+                if (data != null) {
+                    buffer.put(data);
+                }
+            }
+            buffer.force();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // not atomic on every platform, but the old snapshot is still valid until here
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    private static void collect(ZkTreeNode node, List<ZkTreeNode> nodes, List<ZkData> datas) {
+        nodes.add(node);
+        datas.add(node.getData());
+        for (ZkTreeNode child : node.getChildren().values()) {
+            collect(child, nodes, datas);
+        }
+    }
+
+    /**
+     * @return the data and stat of the nodes by path, parents before their children, or null if the
+     * file is not a snapshot
+     */
+    static Map<String, ZkData> read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            int count = buffer.getInt();
+            Map<String, ZkData> nodes = new LinkedHashMap<String, ZkData>();
+            for (int i = 0; i < count; i++) {
+                byte[] path = new byte[buffer.getInt()];
+                buffer.get(path);
+                Stat stat = new Stat(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                        buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong(), buffer.getInt(),
+                        buffer.getInt(), buffer.getLong());
+                int length = buffer.getInt();
+                byte[] data = null;
+                if (length >= 0) {
+                    data = new byte[length];
+                    buffer.get(data);
+                }
+                nodes.put(new String(path, UTF8), new ZkData(data, stat));
+            }
+            return nodes;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the children names by path of the nodes read by {@link #read(File)}
+     */
+    static Map<String, List<String>> children(String root, Map<String, ZkData> nodes) {
+        Map<String, List<String>> children = new LinkedHashMap<String, List<String>>();
+        for (String path : nodes.keySet()) {
+            children.put(path, new ArrayList<String>());
+            if (!path.equals(root)) {
+                List<String> siblings = children.get(ZkClient.getParent(path));
+                if (siblings != null) {
+                    siblings.add(path.substring(path.lastIndexOf('/') + 1));
+                }
+            }
+        }
+        return children;
+    }
+}
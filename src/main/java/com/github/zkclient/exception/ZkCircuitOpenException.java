@@ -0,0 +1,35 @@
+/**
+ * Copyright 2010 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.zkclient.exception;
+
+/**
+ * Thrown instead of waiting for the connection while the circuit breaker of the client is open.
+ *
+ * @see com.github.zkclient.ZkClient#setCircuitBreaker(long, long, boolean)
+ * @since 2.3
+ */
+public class ZkCircuitOpenException extends ZkException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ZkCircuitOpenException() {
+        super();
+    }
+
+    public ZkCircuitOpenException(String message) {
+        super(message);
+    }
+}
@@ -3,8 +3,15 @@
  */
 package com.github.zkclient;
 
+import com.github.zkclient.exception.ZkBadVersionException;
+import com.github.zkclient.exception.ZkCircuitOpenException;
 import com.github.zkclient.exception.ZkNoNodeException;
+import com.github.zkclient.exception.ZkTimeoutException;
 import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.OpResult;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher.Event.EventType;
 import org.apache.zookeeper.Watcher.Event.KeeperState;
 import org.apache.zookeeper.data.Stat;
 import org.junit.After;
@@ -18,8 +25,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
@@ -28,6 +41,7 @@ import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -319,6 +333,86 @@ public class ZkClientTest {
     }
 
 
+    @Test
+    public void testSlowListenerWithSeveralEventThreads() throws Exception {
+        ZkClient client2 = new ZkClient("localhost:4711", 15000, 15000, 4);
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final List<String> changed = new ArrayList<String>();
+        IZkDataListener listener = new AbstractListener() {
+            @Override
+            public void handleDataChange(String dataPath, byte[] data) throws Exception {
+                if (dataPath.equals("/slow")) {
+                    blocked.await();
+                }
+                synchronized (changed) {
+                    changed.add(dataPath);
+                }
+            }
+        };
+        // find a path which is not on the lane of the slow path
+        String fast = null;
+        for (int i = 0; fast == null; i++) {
+            if (("/slow".hashCode() & Integer.MAX_VALUE) % 4 != (("/fast" + i).hashCode() & Integer.MAX_VALUE) % 4) {
+                fast = "/fast" + i;
+            }
+        }
+        client2.subscribeDataChanges("/slow", listener);
+        client2.subscribeDataChanges(fast, listener);
+        client.createPersistent("/slow", toBytes("a"));
+        client.createPersistent(fast, toBytes("a"));
+        //
+        final String fastPath = fast;
+        assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                synchronized (changed) {
+                    return changed.contains(fastPath);
+                }
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        synchronized (changed) {
+            assertFalse(changed.contains("/slow"));
+        }
+        blocked.countDown();
+        client2.close();
+    }
+
+    @Test
+    public void testDataChangeReadOnceForAllListeners() throws Exception {
+        final AtomicInteger reads = new AtomicInteger();
+        ZkClient client2 = new ZkClient(new ZkConnection("localhost:4711", 15000) {
+            @Override
+            public byte[] readData(String path, Stat stat, boolean watch) throws KeeperException, InterruptedException {
+                reads.incrementAndGet();
+                return super.readData(path, stat, watch);
+            }
+        }, 15000);
+        final AtomicInteger notified = new AtomicInteger();
+        client2.subscribeDataChanges("/a", new AbstractListener() {
+            @Override
+            public void handleDataChange(String dataPath, byte[] data) throws Exception {
+                throw new IllegalStateException("a broken listener");
+            }
+        });
+        for (int i = 0; i < 5; i++) {
+            client2.subscribeDataChanges("/a", new AbstractListener() {
+                @Override
+                public void handleDataChange(String dataPath, byte[] data) throws Exception {
+                    notified.incrementAndGet();
+                }
+            });
+        }
+        client.createPersistent("/a", toBytes("a"));
+        assertEquals(5, (int) TestUtil.waitUntil(5, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return notified.get();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        assertEquals(1, reads.get());
+        client2.close();
+    }
+
     /**
      * Test method for
      * {@link com.github.zkclient.ZkClient#createPersistent(java.lang.String, boolean)}
@@ -337,6 +431,27 @@ public class ZkClientTest {
         assertTrue(client.exists(path));
     }
 
+    @Test
+    public void testCreatePersistentWithKnownParents() {
+        client.createPersistent("/a/b/c/d/e", true);
+        assertTrue(client.exists("/a/b/c/d/e"));
+        client.createPersistent("/a/b/c/d/e", true);
+        client.createPersistent("/a/b/c/d/f", true);
+        assertEquals(2, client.countChildren("/a/b/c/d"));
+        //
+        // deleted by ourselves
+        assertTrue(client.deleteRecursive("/a/b"));
+        client.createPersistent("/a/b/c/d/e", true);
+        assertTrue(client.exists("/a/b/c/d/e"));
+        //
+        // deleted by another client, the known parents are stale
+        ZkClient client2 = new ZkClient("localhost:4711", 15000);
+        assertTrue(client2.deleteRecursive("/a"));
+        client2.close();
+        client.createPersistent("/a/b/c/d/e", true);
+        assertTrue(client.exists("/a/b/c/d/e"));
+    }
+
     /**
      * Test method for
      * {@link com.github.zkclient.ZkClient#createPersistent(java.lang.String, byte[])}
@@ -447,6 +562,28 @@ public class ZkClientTest {
         assertFalse(client.exists("/a"));
     }
 
+    @Test
+    public void testDeleteRecursiveParallel() {
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 10; j++) {
+                client.createPersistent("/a/b" + i + "/c" + j, true);
+            }
+        }
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger total = new AtomicInteger();
+        assertTrue(client.deleteRecursive("/a", 8, new IZkClient.ProgressListener() {
+            @Override
+            public void progress(String path, int d, int t, long elapsedMillis) {
+                done.set(d);
+                total.set(t);
+            }
+        }));
+        assertEquals(111, total.get());
+        assertEquals(111, done.get());
+        assertFalse(client.exists("/a"));
+        assertFalse(client.deleteRecursive("/a", 8, null));
+    }
+
     /**
      * Test method for
      * {@link com.github.zkclient.ZkClient#waitUntilExists(java.lang.String, java.util.concurrent.TimeUnit, long)}
@@ -467,6 +604,150 @@ public class ZkClientTest {
         assertFalse(client.waitUntilExists("/notexists", TimeUnit.SECONDS, 1));
     }
 
+    @Test
+    public void testStat() throws Exception {
+        assertNull(client.stat("/stat"));
+        assertEquals(-1, client.countChildren("/stat"));
+        assertEquals(-1, client.getCreationTime("/stat"));
+        client.createPersistent("/stat/a", true);
+        client.createPersistent("/stat/b");
+        client.writeData("/stat", toBytes("payload"));
+        Stat stat = client.stat("/stat");
+        assertEquals(2, stat.getNumChildren());
+        assertEquals(toBytes("payload").length, stat.getDataLength());
+        assertEquals(1, stat.getVersion());
+        assertEquals(2, client.countChildren("/stat"));
+        // reads do not wait for the event lock
+        client.getEventLock().lock();
+        try {
+            final ZkFuture<Long> ctime = new ZkFuture<Long>();
+            new Thread() {
+                public void run() {
+                    ctime.set(client.getCreationTime("/stat"));
+                }
+            }.start();
+            assertEquals(Long.valueOf(stat.getCtime()), ctime.get(TIMEOUT, TimeUnit.SECONDS));
+        } finally {
+            client.getEventLock().unlock();
+        }
+    }
+
+    @Test
+    public void testTransaction() throws Exception {
+        client.createPersistent("/tx");
+        List<OpResult> results = client.transaction()
+                .create("/tx/a", toBytes("a"), CreateMode.PERSISTENT)
+                .setData("/tx", toBytes("root"), 0)
+                .check("/tx/a", 0)
+                .commit();
+        assertEquals("/tx/a", ((OpResult.CreateResult) results.get(0)).getPath());
+        assertEquals(1, ((OpResult.SetDataResult) results.get(1)).getStat().getVersion());
+        assertTrue(results.get(2) instanceof OpResult.CheckResult);
+        // a failed operation rolls back the whole transaction
+        try {
+            client.transaction()
+                    .create("/tx/b", null, CreateMode.PERSISTENT)
+                    .delete("/tx/a", 5)
+                    .commit();
+            fail("expected a bad version");
+        } catch (ZkBadVersionException e) {
+            List<OpResult> failed = ((KeeperException) e.getCause()).getResults();
+            assertEquals(2, failed.size());
+            assertTrue(failed.get(1) instanceof OpResult.ErrorResult);
+        }
+        assertFalse(client.exists("/tx/b"));
+        results = client.transaction().delete("/tx/a").commitAsync().get(TIMEOUT, TimeUnit.SECONDS);
+        assertTrue(results.get(0) instanceof OpResult.DeleteResult);
+        // chunks of about two operations each
+        ZkTransaction large = client.transaction();
+        for (int i = 0; i < 5; i++) {
+            large.create("/tx/c" + i, toBytes("data" + i), CreateMode.PERSISTENT);
+        }
+        assertEquals(5, large.size());
+        results = large.commitInChunks(2 * ZkTransaction.estimate("/tx/c0", toBytes("data0")));
+        assertEquals(5, results.size());
+        assertEquals("/tx/c4", ((OpResult.CreateResult) results.get(4)).getPath());
+        assertEquals(5, client.countChildren("/tx"));
+    }
+
+    @Test
+    public void testBatchWriter() throws Exception {
+        client.createPersistent("/batch");
+        assertNull(client.getBatchWriter());
+        client.setBatchWriter(10, 1024 * 1024, 50);
+        ZkBatchWriter writer = client.getBatchWriter();
+        List<ZkFuture<OpResult>> futures = new ArrayList<ZkFuture<OpResult>>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(writer.create("/batch/n" + i, toBytes("v" + i), CreateMode.PERSISTENT));
+        }
+        for (int i = 0; i < 20; i++) {
+            OpResult result = futures.get(i).get(TIMEOUT, TimeUnit.SECONDS);
+            assertEquals("/batch/n" + i, ((OpResult.CreateResult) result).getPath());
+        }
+        assertEquals(2, writer.getBatches());
+        // the failed write does not take the others of its batch down
+        futures.clear();
+        for (int i = 0; i < 5; i++) {
+            futures.add(writer.writeData("/batch/n" + i, toBytes("w" + i)));
+        }
+        ZkFuture<OpResult> missing = writer.writeData("/batch/missing", toBytes("w"));
+        for (int i = 5; i < 9; i++) {
+            futures.add(writer.writeData("/batch/n" + i, toBytes("w" + i)));
+        }
+        try {
+            missing.get(TIMEOUT, TimeUnit.SECONDS);
+            fail("expected no node");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ZkNoNodeException);
+        }
+        for (int i = 0; i < 9; i++) {
+            assertEquals(1, ((OpResult.SetDataResult) futures.get(i).get(TIMEOUT, TimeUnit.SECONDS)).getStat().getVersion());
+            assertEquals("w" + i, toString(client.readData("/batch/n" + i)));
+        }
+        assertEquals(9, writer.getResent());
+        // the linger time sends a batch which is not full
+        ZkFuture<OpResult> deleted = writer.delete("/batch/n19");
+        assertTrue(deleted.get(TIMEOUT, TimeUnit.SECONDS) instanceof OpResult.DeleteResult);
+        assertFalse(client.exists("/batch/n19"));
+        // the writes of one thread are applied in order, and read back through the read cache
+        client.setReadCache(100, 1024 * 1024, new ZkReadCachePolicy().cache("/batch", 60000));
+        assertEquals("w0", toString(client.readData("/batch/n0")));
+        client.setBatchWriter(3, 1024 * 1024, 1);
+        ZkFuture<OpResult> last = null;
+        for (int i = 0; i < 50; i++) {
+            last = client.getBatchWriter().writeData("/batch/n0", toBytes("o" + i));
+        }
+        last.get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals("o49", toString(client.readData("/batch/n0")));
+        client.setBatchWriter(0, 0, 0);
+        assertNull(client.getBatchWriter());
+        assertFalse(writer.writeData("/batch/n0", null).isSuccess());
+    }
+
+    @Test
+    public void testWaitUntilExistsAnyAll() throws Exception {
+        final List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < 5; i++) {
+            paths.add("/wait" + i);
+        }
+        new Thread() {
+            public void run() {
+                for (String path : paths) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+                    client.createPersistent(path.replace("/wait", "/other"));
+                    client.createPersistent(path);
+                }
+            }
+        }.start();
+        assertEquals("/wait0", client.waitUntilExistsAny(paths, TimeUnit.SECONDS, 10));
+        assertTrue(client.waitUntilExistsAll(paths, TimeUnit.SECONDS, 10));
+        assertEquals("/wait4", client.waitUntilExistsAny(Arrays.asList("/none", "/wait4"), TimeUnit.SECONDS, 1));
+        assertNull(client.waitUntilExistsAny(Arrays.asList("/none", "/none2"), TimeUnit.MILLISECONDS, 200));
+        assertFalse(client.waitUntilExistsAll(Arrays.asList("/none", "/wait4"), TimeUnit.MILLISECONDS, 200));
+        // nothing left behind by the waiters
+        assertEquals(0, client.getExistsWaiters().size());
+    }
+
     /**
      * Test method for {@link com.github.zkclient.ZkClient#waitUntilConnected()}
      * .
@@ -566,6 +847,230 @@ public class ZkClientTest {
     }
 
 
+    @Test
+    public void testRetryPolicyGivesUp() throws Exception {
+        int port = PortUtils.checkAvailablePort(4712);
+        Gateway gateway = new Gateway(port, this.server.getPort());
+        gateway.start();
+        final ZkClient client2 = new ZkClient("localhost:" + port, 15000, 15000);
+        client2.setRetryPolicy(new ZkRetryPolicy(100, 50, 200, 1000));
+        gateway.stop();
+        assertFalse(TestUtil.waitUntil(false, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return client2.isConnected();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        long startTime = System.currentTimeMillis();
+        try {
+            client2.readData("/a", true);
+            fail("should time out");
+        } catch (ZkTimeoutException e) {
+            assertTrue(System.currentTimeMillis() - startTime < 5000);
+        }
+        // the per call policy wins
+        try {
+            client2.retryUntilConnected(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return client2.getZooKeeper().exists("/a", false) != null;
+                }
+            }, new ZkRetryPolicy(0, 0, 0, 0));
+            fail("should give up at once");
+        } catch (ZkTimeoutException e) {
+            // expected
+        }
+        // an operation waiting for the connection without a deadline does not hold up the others
+        client2.setRetryPolicy(ZkRetryPolicy.UNTIL_CONNECTED);
+        ZkFuture<byte[]> waiting = client2.readDataAsync("/a");
+        // long enough for the retries to go through the retry thread
+        client2.setRetryPolicy(new ZkRetryPolicy(100, 50, 200, 3000));
+        startTime = System.currentTimeMillis();
+        try {
+            client2.readDataAsync("/a").get(10, TimeUnit.SECONDS);
+            fail("should time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof ZkTimeoutException);
+            assertTrue(System.currentTimeMillis() - startTime < 8000);
+        }
+        assertFalse(waiting.isDone());
+        client2.close();
+        // closing the client fails the waiting operation
+        assertTrue(waiting.isDone());
+        assertFalse(waiting.isSuccess());
+    }
+
+
+    @Test
+    public void testCircuitBreaker() throws Exception {
+        client.createPersistent("/cb", toBytes("v"));
+        int port = PortUtils.checkAvailablePort(4712);
+        Gateway gateway = new Gateway(port, this.server.getPort());
+        gateway.start();
+        final ZkClient client2 = new ZkClient("localhost:" + port, 15000, 15000);
+        client2.setReadCache(100, 1024 * 1024, new ZkReadCachePolicy().cache("/cb", 1));
+        client2.setCircuitBreaker(300, 100, true);
+        final List<ZkCircuitState> states = Collections.synchronizedList(new ArrayList<ZkCircuitState>());
+        client2.subscribeStateChanges(new IZkCircuitListener() {
+            @Override
+            public void handleCircuitStateChanged(ZkCircuitState state) throws Exception {
+                states.add(state);
+            }
+
+            @Override
+            public void handleStateChanged(KeeperState state) throws Exception {
+            }
+
+            @Override
+            public void handleNewSession() throws Exception {
+            }
+        });
+        assertEquals("v", toString(client2.readData("/cb")));
+        //
+        gateway.stop();
+        assertEquals(ZkCircuitState.OPEN, TestUtil.waitUntil(ZkCircuitState.OPEN, new Callable<ZkCircuitState>() {
+            @Override
+            public ZkCircuitState call() throws Exception {
+                return client2.getCircuitState();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        long startTime = System.currentTimeMillis();
+        try {
+            client2.exists("/cb");
+            fail("should fail fast");
+        } catch (ZkCircuitOpenException e) {
+            assertTrue(System.currentTimeMillis() - startTime < 1000);
+        }
+        try {
+            client2.readDataAsync("/cb").getResult();
+            fail("should fail fast");
+        } catch (ZkCircuitOpenException e) {
+            // expected
+        }
+        // the expired cache entry still answers
+        assertEquals("v", toString(client2.readData("/cb")));
+        assertEquals(1, client2.getCircuitStats().getStaleReads());
+        assertEquals(1, client2.getCircuitStats().getOpened());
+        //
+        gateway.start();
+        assertEquals(ZkCircuitState.CLOSED, TestUtil.waitUntil(ZkCircuitState.CLOSED, new Callable<ZkCircuitState>() {
+            @Override
+            public ZkCircuitState call() throws Exception {
+                return client2.getCircuitState();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        client.writeData("/cb", toBytes("w"));
+        assertEquals("w", toString(client2.readData("/cb")));
+        assertEquals(Integer.valueOf(3), TestUtil.waitUntil(3, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return states.size();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        assertEquals("[OPEN, HALF_OPEN, CLOSED]", states.toString());
+        client2.close();
+        gateway.stop();
+    }
+
+
+    @Test
+    public void testCircuitBreakerKeepsWatches() throws Exception {
+        client.createPersistent("/cbw", toBytes("v"));
+        int port = PortUtils.checkAvailablePort(4712);
+        Gateway gateway = new Gateway(port, this.server.getPort());
+        gateway.start();
+        final ZkClient client2 = new ZkClient("localhost:" + port, 15000, 15000);
+        client2.setCircuitBreaker(300, 100, false);
+        final List<String> changes = Collections.synchronizedList(new ArrayList<String>());
+        client2.subscribeDataChanges("/cbw", new IZkDataListener() {
+            @Override
+            public void handleDataChange(String dataPath, byte[] data) throws Exception {
+                changes.add(ZkClientTest.toString(data));
+            }
+
+            @Override
+            public void handleDataDeleted(String dataPath) throws Exception {
+            }
+        });
+        gateway.stop();
+        assertEquals(ZkCircuitState.OPEN, TestUtil.waitUntil(ZkCircuitState.OPEN, new Callable<ZkCircuitState>() {
+            @Override
+            public ZkCircuitState call() throws Exception {
+                return client2.getCircuitState();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        client.writeData("/cbw", toBytes("w1"));
+        // an event arriving while the breaker is open re-arms the watch once connected
+        Thread eventThread = new Thread() {
+            public void run() {
+                client2.process(new WatchedEvent(EventType.NodeDataChanged, KeeperState.SyncConnected, "/cbw"));
+            }
+        };
+        eventThread.start();
+        eventThread.join();
+        gateway.start();
+        assertEquals(ZkCircuitState.CLOSED, TestUtil.waitUntil(ZkCircuitState.CLOSED, new Callable<ZkCircuitState>() {
+            @Override
+            public ZkCircuitState call() throws Exception {
+                return client2.getCircuitState();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return changes.contains("w1");
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        client.writeData("/cbw", toBytes("w2"));
+        assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return changes.contains("w2");
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        // the client's own reads were not rejected
+        assertEquals(0, client2.getCircuitStats().getRejected());
+        client2.close();
+        gateway.stop();
+    }
+
+    @Test
+    public void testAwaitConnected() throws Exception {
+        assertTrue(client.awaitConnected().isDone());
+        int port = PortUtils.checkAvailablePort(4712);
+        Gateway gateway = new Gateway(port, this.server.getPort());
+        gateway.start();
+        final ZkClient client2 = new ZkClient("localhost:" + port, 15000, 15000);
+        gateway.stop();
+        assertFalse(TestUtil.waitUntil(false, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return client2.isConnected();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        ZkFuture<KeeperState> connected = client2.awaitConnected();
+        ZkFuture<KeeperState> cancelled = client2.awaitConnected();
+        assertFalse(connected.isDone());
+        assertTrue(cancelled.cancel(false));
+        assertFalse(client2.waitUntilConnected(100, TimeUnit.MILLISECONDS));
+        gateway.start();
+        assertEquals(KeeperState.SyncConnected, connected.get(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(client2.isConnected());
+        // a waiter left when closing fails
+        gateway.stop();
+        assertFalse(TestUtil.waitUntil(false, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return client2.isConnected();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        ZkFuture<KeeperState> pending = client2.awaitConnected();
+        client2.close();
+        assertTrue(pending.isDone());
+        assertFalse(pending.isSuccess());
+    }
+
+
     @Test
     public void testChildListenerAfterSessionExpiredException() throws Exception {
         final int sessionTimeout = 200;
@@ -612,4 +1117,542 @@ public class ZkClientTest {
         gateway.stop();
     }
 
+
+    static class PriorityDataListener implements IZkDataListener, IZkResyncPriority {
+
+        private final int priority;
+
+        private final List<String> resynced;
+
+        PriorityDataListener(int priority, List<String> resynced) {
+            this.priority = priority;
+            this.resynced = resynced;
+        }
+
+        @Override
+        public int getResyncPriority() {
+            return priority;
+        }
+
+        @Override
+        public void handleDataChange(String dataPath, byte[] data) throws Exception {
+            resynced.add(dataPath);
+        }
+
+        @Override
+        public void handleDataDeleted(String dataPath) throws Exception {
+            resynced.add(dataPath);
+        }
+    }
+
+    @Test
+    public void testResyncAfterSessionExpired() throws Exception {
+        final List<String> resynced = Collections.synchronizedList(new ArrayList<String>());
+        String[] paths = {"/a", "/b", "/c"};
+        int[] priorities = {0, 5, 10};
+        for (int i = 0; i < paths.length; i++) {
+            client.createPersistent(paths[i]);
+            client.subscribeDataChanges(paths[i], new PriorityDataListener(priorities[i], resynced));
+        }
+        client.setResyncRate(10, 100);
+        //
+        client.process(new WatchedEvent(EventType.None, KeeperState.Expired, null));
+        assertTrue(TestUtil.waitUntil(3, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return resynced.size();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT) == 3);
+        assertEquals("/c", resynced.get(0));
+        assertEquals("/b", resynced.get(1));
+        assertEquals("/a", resynced.get(2));
+        //
+        ZkResyncStats stats = client.getResyncStats();
+        assertEquals(1, stats.getResyncs());
+        assertEquals(3, stats.getTotal());
+        assertEquals(3, stats.getDone());
+        assertFalse(stats.isRunning());
+        assertTrue(stats.getDurationMillis() >= 100);
+        //
+        // the watches are armed again
+        client.writeData("/a", toBytes("a"));
+        assertTrue(TestUtil.waitUntil(4, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return resynced.size();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT) == 4);
+        // listeners without a priority count as 0
+        List<String> ignored = new ArrayList<String>();
+        Object low = new PriorityDataListener(-5, ignored);
+        Object high = new PriorityDataListener(5, ignored);
+        Object plain = new Object();
+        assertEquals(0, ZkClient.resyncPriority(new HashSet<Object>(Arrays.asList(low, plain))));
+        assertEquals(5, ZkClient.resyncPriority(new HashSet<Object>(Arrays.asList(high, plain))));
+        assertEquals(-5, ZkClient.resyncPriority(Collections.singleton(low)));
+        assertEquals(0, ZkClient.resyncPriority(Collections.singleton(plain)));
+    }
+
+
+    @Test
+    public void testNodeCache() throws Exception {
+        client.createPersistent("/config", toBytes("a"));
+        final ZkNodeCache cache = new ZkNodeCache(client, "/config");
+        cache.start();
+        assertEquals("a", toString(cache.getData()));
+        assertEquals(0, cache.getStat().getVersion());
+        assertFalse(cache.isStale());
+        //
+        client.writeData("/config", toBytes("b"));
+        assertEquals(Integer.valueOf(1), TestUtil.waitUntil(1, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return cache.getStat().getVersion();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        assertEquals("b", toString(cache.getData()));
+        //
+        client.delete("/config");
+        assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return cache.getCurrent() == null;
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        client.createPersistent("/config", toBytes("c"));
+        assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return cache.getData() != null && "c".equals(ZkClientTest.toString(cache.getData()));
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        //
+        // fresh again once the node was read in the new session
+        client.process(new WatchedEvent(EventType.None, KeeperState.Expired, null));
+        assertFalse(TestUtil.waitUntil(false, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return cache.isStale();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        assertEquals("c", toString(cache.getData()));
+        //
+        cache.close();
+        assertTrue(cache.isStale());
+        assertEquals("c", toString(cache.getData()));
+    }
+
+
+    @Test
+    public void testPathChildrenCache() throws Exception {
+        client.createPersistent("/services/a", true);
+        client.writeData("/services/a", toBytes("a"));
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        ZkPathChildrenCache cache = new ZkPathChildrenCache(client, "/services");
+        cache.addListener(new IZkChildCacheListener() {
+            @Override
+            public void childEvent(ZkPathChildrenCache cache, ZkChildEvent event) throws Exception {
+                events.add(event.getType() + " " + event.getPath() + " " + ZkClientTest.toString(event.getData().getData()));
+            }
+        });
+        cache.start();
+        assertEquals(1, events.size());
+        assertEquals("CHILD_ADDED /services/a a", events.get(0));
+        //
+        client.createPersistent("/services/b", toBytes("b"));
+        waitForEvents(events, 2);
+        assertEquals("CHILD_ADDED /services/b b", events.get(1));
+        client.writeData("/services/a", toBytes("aa"));
+        waitForEvents(events, 3);
+        assertEquals("CHILD_UPDATED /services/a aa", events.get(2));
+        client.delete("/services/b");
+        waitForEvents(events, 4);
+        assertEquals("CHILD_REMOVED /services/b b", events.get(3));
+        //
+        assertEquals(1, cache.getChildren().size());
+        assertEquals("aa", toString(cache.getChild("a").getData()));
+        assertEquals(2, cache.getChild("a").getStat().getVersion());
+        cache.close();
+    }
+
+    private void waitForEvents(final List<String> events, final int count) throws Exception {
+        assertEquals(Integer.valueOf(count), TestUtil.waitUntil(count, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return events.size();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+    }
+
+
+    @Test
+    public void testTreeCache() throws Exception {
+        client.createPersistent("/tree/a/b", true);
+        client.createPersistent("/tree/c", toBytes("c"));
+        for (int i = 0; i < 100; i++) {
+            client.createPersistent("/tree/c/n" + i, toBytes("n" + i));
+        }
+        final ZkTreeCache cache = new ZkTreeCache(client, "/tree", 10);
+        cache.start();
+        final ZkTreeNode first = cache.getSnapshot();
+        assertEquals(104, first.size());
+        assertEquals("n7", toString(cache.getNode("/tree/c/n7").getData().getData()));
+        //
+        client.writeData("/tree/a/b", toBytes("b"));
+        assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return cache.getSnapshot() != first;
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        ZkTreeNode second = cache.getSnapshot();
+        assertEquals("b", toString(second.getChild("a").getChild("b").getData().getData()));
+        // the old snapshot is unchanged and the untouched subtree is shared
+        assertNull(first.getChild("a").getChild("b").getData().getData());
+        assertTrue(first.getChild("c") == second.getChild("c"));
+        //
+        client.createPersistent("/tree/a/d/e", true);
+        client.deleteRecursive("/tree/c");
+        assertEquals(Integer.valueOf(5), TestUtil.waitUntil(5, new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return cache.getSnapshot().size();
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        assertTrue(cache.getNode("/tree/a/d/e") != null);
+        assertNull(cache.getNode("/tree/c"));
+        //
+        cache.close();
+    }
+
+
+    @Test
+    public void testTreeCacheOffHeap() throws Exception {
+        client.createPersistent("/tree/a", true);
+        client.writeData("/tree/a", toBytes("a"));
+        ZkOffHeapStore store = new ZkOffHeapStore(4096);
+        final ZkTreeCache cache = new ZkTreeCache(client, "/tree", 10, store);
+        cache.start();
+        assertEquals(2, store.getRecords());
+        final ZkTreeNode first = cache.getNode("/tree/a");
+        assertEquals("a", toString(first.getData().getData()));
+        assertEquals(1, first.getStat().getVersion());
+        //
+        client.writeData("/tree/a", toBytes("b"));
+        assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return cache.getNode("/tree/a").getStat().getVersion() == 2;
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        assertEquals(toBytes("b").length, cache.getNode("/tree/a").getDataBuffer().remaining());
+        // the old record stays readable while the old node is reachable
+        assertEquals("a", toString(first.getData().getData()));
+        assertEquals(1, first.getDataBuffer().remaining());
+        cache.close();
+    }
+
+
+    @Test
+    public void testTreeCacheSnapshot() throws Exception {
+        client.createPersistent("/tree");
+        client.createPersistent("/tree/a", toBytes("a"));
+        client.createPersistent("/tree/b", toBytes("b"));
+        client.createPersistent("/tree/c", toBytes("c"));
+        File file = File.createTempFile("zktree", ".snapshot");
+        assertTrue(file.delete());
+        try {
+            ZkTreeCache cache = new ZkTreeCache(client, "/tree");
+            cache.setSnapshot(file, 60000);
+            cache.start();
+            assertEquals(ZkTreeCache.Readiness.RECONCILED, cache.getReadiness());
+            cache.close();
+            assertTrue(file.isFile());
+            // changed while stopped
+            client.writeData("/tree/a", toBytes("a2"));
+            client.delete("/tree/b");
+            client.createPersistent("/tree/d", toBytes("d"));
+            //
+            cache = new ZkTreeCache(client, "/tree");
+            cache.setSnapshot(file, 60000);
+            synchronized (cache) {
+                // holding the cache lock keeps the reconciled tree from being swapped in
+                cache.start();
+                assertEquals(ZkTreeCache.Readiness.SNAPSHOT, cache.getReadiness());
+                assertEquals("a", toString(cache.getNode("/tree/a").getData().getData()));
+                assertEquals(3, cache.getSnapshot().getChildren().size());
+                // the reconciler reads without the lock; a change meanwhile must survive the swap
+                client.writeData("/tree/c", toBytes("c1"));
+            }
+            assertTrue(cache.awaitReconciled(TIMEOUT, TimeUnit.SECONDS));
+            assertEquals(ZkTreeCache.Readiness.RECONCILED, cache.getReadiness());
+            assertEquals("a2", toString(cache.getNode("/tree/a").getData().getData()));
+            assertNull(cache.getNode("/tree/b"));
+            final ZkTreeCache reconciling = cache;
+            assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return "c1".equals(ZkClientTest.toString(reconciling.getNode("/tree/c").getData().getData()));
+                }
+            }, TimeUnit.SECONDS, TIMEOUT));
+            assertEquals("d", toString(cache.getNode("/tree/d").getData().getData()));
+            // reconciled nodes are watched
+            client.writeData("/tree/c", toBytes("c2"));
+            final ZkTreeCache reconciled = cache;
+            assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return "c2".equals(ZkClientTest.toString(reconciled.getNode("/tree/c").getData().getData()));
+                }
+            }, TimeUnit.SECONDS, TIMEOUT));
+            cache.close();
+            assertEquals(ZkTreeCache.Readiness.NOT_READY, cache.getReadiness());
+        } finally {
+            file.delete();
+        }
+    }
+
+
+    @Test
+    public void testClientPool() throws Exception {
+        ZkClientPool pool = new ZkClientPool("localhost:4711", 15000, 15000, 3);
+        try {
+            assertTrue(pool.isConnected());
+            List<Long> sessions = new ArrayList<Long>();
+            for (ZkClient c : pool.getClients()) {
+                assertFalse(sessions.contains(c.getZooKeeper().getSessionId()));
+                sessions.add(c.getZooKeeper().getSessionId());
+            }
+            List<String> paths = new ArrayList<String>();
+            for (int i = 0; i < 20; i++) {
+                paths.add("/pool" + i);
+                pool.createPersistent("/pool" + i, toBytes("v" + i));
+                assertSame(pool.getClient("/pool" + i), pool.getClient("/pool" + i));
+            }
+            // a watch stays on the session of the path
+            final AtomicInteger changes = new AtomicInteger();
+            pool.subscribeDataChanges("/pool0", new IZkDataListener() {
+                @Override
+                public void handleDataChange(String dataPath, byte[] data) throws Exception {
+                    changes.incrementAndGet();
+                }
+
+                @Override
+                public void handleDataDeleted(String dataPath) throws Exception {
+                }
+            });
+            assertEquals(1, pool.getClient("/pool0").numberOfListeners());
+            assertEquals(1, pool.numberOfListeners());
+            client.writeData("/pool0", toBytes("changed"));
+            assertEquals(Integer.valueOf(1), TestUtil.waitUntil(1, new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return changes.get();
+                }
+            }, TimeUnit.SECONDS, TIMEOUT));
+            //
+            pool.setRoundRobinReads(true);
+            assertEquals("v7", toString(pool.readData("/pool7")));
+            Map<String, ZkData> datas = pool.readData(paths, 4);
+            assertEquals(20, datas.size());
+            assertEquals("v19", toString(datas.get("/pool19").getData()));
+        } finally {
+            pool.close();
+        }
+    }
+
+
+    @Test
+    public void testExistenceCache() throws Exception {
+        client.setExistenceCache(true);
+        final String path = "/toggle";
+        client.subscribeDataChanges(path, new IZkDataListener() {
+            @Override
+            public void handleDataChange(String dataPath, byte[] data) throws Exception {
+            }
+
+            @Override
+            public void handleDataDeleted(String dataPath) throws Exception {
+            }
+        });
+        // the subscription armed an exists watch and remembered the missing node
+        assertFalse(client.exists(path));
+        assertFalse(client.exists(path));
+        // paths without listeners are not cached
+        assertFalse(client.exists("/other"));
+        ZkCacheStats stats = client.getExistenceCacheStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(1, stats.getMisses());
+        assertEquals(1, stats.getSize());
+        //
+        client.createPersistent(path);
+        assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return client.exists(path);
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        client.delete(path);
+        assertFalse(TestUtil.waitUntil(false, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return client.exists(path);
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        // the watches re-armed by the events count as misses
+        assertTrue(client.getExistenceCacheStats().getMisses() > 1);
+        //
+        client.process(new WatchedEvent(EventType.None, KeeperState.Disconnected, null));
+        assertEquals(0, client.getExistenceCacheStats().getSize());
+        client.process(new WatchedEvent(EventType.None, KeeperState.SyncConnected, null));
+    }
+
+
+    @Test
+    public void testReadCache() throws Exception {
+        client.setReadCache(2, 1024, new ZkReadCachePolicy().cache("/config", 60000).never("/config/locks"));
+        client.createPersistent("/config/locks", true);
+        client.createPersistent("/config/a", toBytes("a"));
+        client.createPersistent("/config/b", toBytes("b"));
+        client.createPersistent("/config/c", toBytes("c"));
+        client.createPersistent("/config/locks/l", toBytes("l"));
+        //
+        Stat stat = new Stat();
+        assertEquals("a", toString(client.readData("/config/a", stat)));
+        assertEquals("a", toString(client.readData("/config/a", stat)));
+        assertEquals(0, stat.getVersion());
+        assertEquals(1, client.getReadCacheStats().getHits());
+        // writes through this client are read back
+        client.writeData("/config/a", toBytes("aa"));
+        assertEquals("aa", toString(client.readData("/config/a", stat)));
+        assertEquals(1, stat.getVersion());
+        // and so are transactions, sync and async
+        client.transaction().setData("/config/a", toBytes("tx")).commit();
+        assertEquals("tx", toString(client.readData("/config/a", stat)));
+        client.transaction().setData("/config/a", toBytes("async")).commitAsync().get(TIMEOUT, TimeUnit.SECONDS);
+        assertEquals("async", toString(client.readData("/config/a", stat)));
+        assertEquals(3, stat.getVersion());
+        // never cached
+        client.readData("/config/locks/l");
+        client.readData("/config/locks/l");
+        assertEquals(1, client.getReadCacheStats().getHits());
+        // least recently used entries are evicted
+        client.readData("/config/b");
+        client.readData("/config/c");
+        ZkCacheStats stats = client.getReadCacheStats();
+        assertEquals(2, stats.getSize());
+        assertEquals(1, stats.getEvictions());
+        //
+        // watched paths are invalidated by the watch
+        final ZkClient other = new ZkClient("localhost:4711", 30000, 10000);
+        client.subscribeDataChanges("/config/b", new IZkDataListener() {
+            @Override
+            public void handleDataChange(String dataPath, byte[] data) throws Exception {
+            }
+
+            @Override
+            public void handleDataDeleted(String dataPath) throws Exception {
+            }
+        });
+        assertEquals("b", toString(client.readData("/config/b")));
+        other.writeData("/config/b", toBytes("bb"));
+        assertTrue(TestUtil.waitUntil(true, new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return "bb".equals(ZkClientTest.toString(client.readData("/config/b")));
+            }
+        }, TimeUnit.SECONDS, TIMEOUT));
+        other.close();
+    }
+
+
+    @Test
+    public void testAsyncOperations() throws Exception {
+        final String path = "/a";
+        assertFalse(client.existsAsync(path).getResult());
+        assertEquals(path, client.createAsync(path, toBytes("aaa"), CreateMode.PERSISTENT).getResult());
+        assertTrue(client.existsAsync(path).getResult());
+        //
+        Stat stat = new Stat();
+        assertEquals("aaa", toString(client.readDataAsync(path, stat).get()));
+        assertEquals(0, stat.getVersion());
+        assertEquals(1, client.writeDataAsync(path, toBytes("bbb"), 0).getResult().getVersion());
+        assertEquals("bbb", toString(client.readData(path)));
+        //
+        ZkFuture<Stat> badVersion = client.writeDataAsync(path, toBytes("ccc"), 0);
+        try {
+            badVersion.getResult();
+            fail("should throw exception");
+        } catch (ZkBadVersionException e) {
+            assertTrue(badVersion.getCause() instanceof ZkBadVersionException);
+        }
+        //
+        List<ZkFuture<String>> creates = new ArrayList<ZkFuture<String>>();
+        for (int i = 0; i < 100; i++) {
+            creates.add(client.createAsync(path + "/" + i, null, CreateMode.PERSISTENT));
+        }
+        for (ZkFuture<String> create : creates) {
+            create.get(TIMEOUT, TimeUnit.SECONDS);
+        }
+        assertEquals(100, client.getChildrenAsync(path).getResult().size());
+        assertNull(client.getChildrenAsync("/notexists").getResult());
+        try {
+            client.readDataAsync("/notexists").getResult();
+            fail("should throw exception");
+        } catch (ZkNoNodeException e) {
+            // expected
+        }
+        //
+        assertTrue(client.deleteAsync(path + "/0").getResult());
+        assertFalse(client.deleteAsync(path + "/0").getResult());
+        //
+        final CountDownLatch latch = new CountDownLatch(1);
+        client.deleteAsync(path + "/1").addListener(new IZkFutureListener<Boolean>() {
+            @Override
+            public void operationComplete(ZkFuture<Boolean> future) throws Exception {
+                if (future.isSuccess() && future.get()) {
+                    latch.countDown();
+                }
+            }
+        });
+        assertTrue(latch.await(TIMEOUT, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testAsyncRetryAfterConnectionLoss() throws Exception {
+        int port = PortUtils.checkAvailablePort(4712);
+        Gateway gateway = new Gateway(port, this.server.getPort());
+        gateway.start();
+        //
+        final ZkClient client2 = new ZkClient("localhost:" + port, 5000, 15000);
+        gateway.stop();
+        ZkFuture<String> created = client2.createAsync("/abc", null, CreateMode.PERSISTENT);
+        //
+        new DeferredGatewayStarter(gateway, 500).start();
+        assertEquals("/abc", created.get(TIMEOUT, TimeUnit.SECONDS));
+        assertTrue(client.exists("/abc"));
+        client2.close();
+        gateway.stop();
+    }
+
+    @Test
+    public void testReadDataBulk() {
+        List<String> paths = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            String path = "/a" + i;
+            client.createPersistent(path, toBytes("data" + i));
+            paths.add(path);
+        }
+        paths.add("/notexists");
+        Map<String, ZkData> result = client.readData(paths, 16);
+        assertEquals(200, result.size());
+        assertFalse(result.containsKey("/notexists"));
+        int i = 0;
+        for (Map.Entry<String, ZkData> e : result.entrySet()) {
+            assertEquals("/a" + i, e.getKey());
+            assertEquals("data" + i, toString(e.getValue().getData()));
+            assertEquals(0, e.getValue().getStat().getVersion());
+            i++;
+        }
+    }
 }
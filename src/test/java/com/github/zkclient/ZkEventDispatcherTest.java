@@ -0,0 +1,216 @@
+/**
+ *
+ */
+package com.github.zkclient;
+
+import com.github.zkclient.ZkEventThread.ZkEvent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 2.3
+ */
+public class ZkEventDispatcherTest {
+
+    private ZkEventDispatcher dispatcher;
+
+    @Before
+    public void setUp() {
+        dispatcher = new ZkEventDispatcher("test", 1);
+        dispatcher.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        dispatcher.interrupt();
+        dispatcher.join(2000);
+    }
+
+    private static ZkEvent blockingEvent(final CountDownLatch started, final CountDownLatch release) {
+        return new ZkEvent("blocking", "/block") {
+            @Override
+            public void run() throws Exception {
+                started.countDown();
+                release.await();
+            }
+        };
+    }
+
+    private static ZkEvent countingEvent(final String path, final AtomicInteger count, final CountDownLatch done) {
+        return new ZkEvent("counting " + path, path, "data:" + path) {
+            @Override
+            public void run() throws Exception {
+                count.incrementAndGet();
+                done.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        dispatcher.setCoalescing(true);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.send(blockingEvent(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        //
+        AtomicInteger a = new AtomicInteger();
+        AtomicInteger b = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(2);
+        for (int i = 0; i < 5; i++) {
+            dispatcher.send(countingEvent("/a", a, done));
+            dispatcher.send(countingEvent("/b", b, done));
+        }
+        assertEquals(8, dispatcher.getStats().getCoalescedEvents());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        //
+        // the pending event was delivered, so the next one is queued again
+        CountDownLatch again = new CountDownLatch(1);
+        dispatcher.send(countingEvent("/a", a, again));
+        assertTrue(again.await(5, TimeUnit.SECONDS));
+        assertEquals(2, a.get());
+        assertEquals(1, b.get());
+    }
+
+    @Test
+    public void testWithoutCoalescing() throws Exception {
+        AtomicInteger a = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            dispatcher.send(countingEvent("/a", a, done));
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(5, a.get());
+        assertEquals(0, dispatcher.getStats().getCoalescedEvents());
+    }
+
+    @Test
+    public void testOverflowCoalesce() throws Exception {
+        dispatcher.setCapacity(2, ZkEventOverflowPolicy.COALESCE, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.send(blockingEvent(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        //
+        AtomicInteger a = new AtomicInteger();
+        AtomicInteger b = new AtomicInteger();
+        AtomicInteger c = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(3);
+        dispatcher.send(countingEvent("/a", a, done));
+        dispatcher.send(countingEvent("/b", b, done));
+        // the queue is full, only the latest event of /c is kept
+        for (int i = 0; i < 5; i++) {
+            dispatcher.send(countingEvent("/c", c, done));
+        }
+        ZkEventStats stats = dispatcher.getStats();
+        assertEquals(2, stats.getQueueSize());
+        assertEquals(1, stats.getOverflowSize());
+        assertEquals(5, stats.getOverflowEvents());
+        assertEquals(4, stats.getCoalescedEvents());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(1, a.get());
+        assertEquals(1, b.get());
+        assertEquals(1, c.get());
+        assertEquals(0, dispatcher.getStats().getOverflowSize());
+    }
+
+    @Test
+    public void testOverflowBlock() throws Exception {
+        dispatcher.setCapacity(1, ZkEventOverflowPolicy.BLOCK, 5000);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        dispatcher.send(blockingEvent(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        AtomicInteger a = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(2);
+        dispatcher.send(countingEvent("/a", a, done));
+        //
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                release.countDown();
+            }
+        }.start();
+        long start = System.currentTimeMillis();
+        // blocks until the blocking event is done
+        dispatcher.send(countingEvent("/b", a, done));
+        assertTrue(System.currentTimeMillis() - start >= 100);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getStats().getOverflowEvents());
+        assertTrue(dispatcher.getStats().getMaxWaitMillis() >= 100);
+    }
+
+    @Test
+    public void testOverflowBlockTimeout() throws Exception {
+        dispatcher.setCapacity(1, ZkEventOverflowPolicy.BLOCK, 50);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.send(blockingEvent(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        AtomicInteger a = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(2);
+        dispatcher.send(countingEvent("/a", a, done));
+        // parked after the timeout
+        dispatcher.send(countingEvent("/b", a, done));
+        assertEquals(1, dispatcher.getStats().getOverflowSize());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testOverflowFail() throws Exception {
+        dispatcher.setCapacity(1, ZkEventOverflowPolicy.FAIL, 0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        dispatcher.send(blockingEvent(started, release));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        AtomicInteger a = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+        dispatcher.send(countingEvent("/a", a, done));
+        // dropped, never thrown into the zookeeper event thread, but the watch is reinstalled
+        final CountDownLatch rearmed = new CountDownLatch(1);
+        final AtomicInteger b = new AtomicInteger();
+        dispatcher.send(new ZkEvent("counting /b", "/b", "data:/b") {
+            @Override
+            public void run() throws Exception {
+                b.incrementAndGet();
+            }
+
+            @Override
+            public void rearm() throws Exception {
+                rearmed.countDown();
+            }
+        });
+        assertEquals(1, dispatcher.getStats().getOverflowSize());
+        // state events are never held back
+        final CountDownLatch state = new CountDownLatch(1);
+        dispatcher.send(new ZkEvent("state") {
+            @Override
+            public void run() throws Exception {
+                state.countDown();
+            }
+        });
+        assertEquals(1, dispatcher.getStats().getRejectedEvents());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(state.await(5, TimeUnit.SECONDS));
+        assertTrue(rearmed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, a.get());
+        assertEquals(0, b.get());
+    }
+}
@@ -0,0 +1,88 @@
+/**
+ *
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+/**
+ * Compares garbage collection time and heap footprint of cached node data kept on the heap with
+ * data kept in a {@link ZkOffHeapStore}.
+ * <p>
+ * Each run fills a cache with <code>count</code> nodes of 256 bytes, then replaces random nodes
+ * while allocating short lived garbage, as a busy client does. Run each layout in its own JVM with
+ * a fixed heap, e.g. <code>-Xms2g -Xmx2g -XX:MaxDirectMemorySize=2g</code>, and the arguments
+ * <code>heap 1000000</code> or <code>offheap 1000000</code>.
+ * </p>
+ *
+ * @since 2.3
+ */
+public class ZkOffHeapStoreBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        boolean offHeap = args.length > 0 && args[0].equals("offheap");
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 1000000;
+        Random random = new Random(1);
+        byte[] data = new byte[256];
+        //
+        ZkData[] heap = offHeap ? null : new ZkData[count];
+        ZkOffHeapStore store = offHeap ? new ZkOffHeapStore() : null;
+        long[] handles = offHeap ? new long[count] : null;
+        for (int i = 0; i < count; i++) {
+            random.nextBytes(data);
+            if (offHeap) {
+                handles[i] = store.put(data, stat(i));
+            } else {
+                heap[i] = new ZkData(data.clone(), stat(i));
+            }
+        }
+        long footprint = usedHeap();
+        long gcBefore = gcMillis();
+        long start = System.currentTimeMillis();
+        long garbage = 0;
+        for (int i = 0; i < 5 * count; i++) {
+            int index = random.nextInt(count);
+            random.nextBytes(data);
+            if (offHeap) {
+                store.release(handles[index]);
+                handles[index] = store.put(data, stat(i));
+            } else {
+                heap[index] = new ZkData(data.clone(), stat(i));
+            }
+            // short lived garbage of the request path
+            garbage += new byte[64].length;
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        System.out.println((offHeap ? "off-heap" : "on-heap") + ", " + count + " nodes");
+        System.out.println("heap after load: " + footprint / (1024 * 1024) + " MB");
+        if (offHeap) {
+            System.out.println("direct memory: " + store.getSlabBytes() / (1024 * 1024) + " MB");
+        }
+        System.out.println("gc time: " + (gcMillis() - gcBefore) + " ms of " + elapsed + " ms (" + garbage / (1024 * 1024) + " MB garbage)");
+    }
+
+    private static Stat stat(int i) {
+        return new Stat(i, i, i, i, i, 0, 0, 0, 256, 0, i);
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += gc.getCollectionTime();
+        }
+        return millis;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
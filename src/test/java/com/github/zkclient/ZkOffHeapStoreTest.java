@@ -0,0 +1,100 @@
+/**
+ *
+ */
+package com.github.zkclient;
+
+import org.apache.zookeeper.data.Stat;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * @since 2.3
+ */
+public class ZkOffHeapStoreTest {
+
+    private static Stat stat(int version) {
+        return new Stat(1, 2, 3, 4, version, 6, 7, 8, 9, 10, 11);
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testPutAndGet() {
+        ZkOffHeapStore store = new ZkOffHeapStore(1024);
+        long small = store.put(new byte[]{1, 2, 3}, stat(5));
+        long empty = store.put(null, stat(6));
+        byte[] large = new byte[5000];
+        large[4999] = 42;
+        long dedicated = store.put(large, stat(7));
+        //
+        assertArrayEquals(new byte[]{1, 2, 3}, bytes(store.getData(small)));
+        assertEquals(stat(5), store.getStat(small));
+        assertNull(store.getData(empty));
+        assertEquals(6, store.getStat(empty).getVersion());
+        assertArrayEquals(large, bytes(store.getData(dedicated)));
+        assertEquals(3, store.getRecords());
+        try {
+            store.getData(small).put((byte) 0);
+            fail("the view must be read-only");
+        } catch (ReadOnlyBufferException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testReleaseAndReuse() {
+        ZkOffHeapStore store = new ZkOffHeapStore(1024);
+        long first = store.put(new byte[]{1}, stat(1));
+        long slabBytes = store.getSlabBytes();
+        store.release(first);
+        assertEquals(0, store.getRecords());
+        long second = store.put(new byte[]{2}, stat(2));
+        // the record was reused, the old handle is invalid
+        assertEquals(slabBytes, store.getSlabBytes());
+        assertArrayEquals(new byte[]{2}, bytes(store.getData(second)));
+        try {
+            store.getData(first);
+            fail("the record was reused");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPinnedRecord() throws Exception {
+        ZkOffHeapStore store = new ZkOffHeapStore(1024);
+        long first = store.put(new byte[]{1}, stat(1));
+        Object pin = new Object();
+        store.release(first, pin);
+        long second = store.put(new byte[]{2}, stat(2));
+        // still readable while pinned
+        assertArrayEquals(new byte[]{1}, bytes(store.getData(first)));
+        assertEquals(stat(1), store.get(first).getStat());
+        assertArrayEquals(new byte[]{2}, store.get(second).getData());
+        assertEquals(2, store.getRecords());
+        //
+        pin = null;
+        for (int i = 0; i < 100 && store.getRecords() > 1; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, store.getRecords());
+        try {
+            store.getData(first);
+            fail("the record was released");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ *
+ */
+package com.github.zkclient;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Compares the heap used by a listener registry keyed by full paths with a {@link ZkPathTrie},
+ * and the lookup time of both.
+ * <p>
+ * Run with a fixed heap, e.g. <code>-Xms1g -Xmx1g</code>. The paths are built from fresh strings
+ * as they would come from the server.
+ * </p>
+ *
+ * @since 2.3
+ */
+public class ZkPathTrieBenchmark {
+
+    private static final Set<IZkDataListener> LISTENERS = Collections.emptySet();
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        String[] paths = new String[count];
+        for (int i = 0; i < count; i++) {
+            paths[i] = path(i);
+        }
+        //
+        long before = usedHeap();
+        Map<String, Set<IZkDataListener>> map = new ConcurrentHashMap<String, Set<IZkDataListener>>();
+        for (int i = 0; i < count; i++) {
+            map.put(path(i), LISTENERS);
+        }
+        long mapBytes = usedHeap() - before;
+        //
+        before = usedHeap();
+        ZkPathTrie<Set<IZkDataListener>> trie = new ZkPathTrie<Set<IZkDataListener>>();
+        for (int i = 0; i < count; i++) {
+            trie.put(path(i), LISTENERS);
+        }
+        long trieBytes = usedHeap() - before;
+        //
+        System.out.println(count + " paths");
+        System.out.println("ConcurrentHashMap: " + mapBytes / 1024 + " KB, " + lookups(map, paths) + " ns/lookup");
+        System.out.println("ZkPathTrie:        " + trieBytes / 1024 + " KB, " + lookups(trie, paths) + " ns/lookup");
+        // keep both reachable until measured
+        System.out.println(map.size() + trie.size() > 0 ? "" : "empty");
+    }
+
+    private static String path(int i) {
+        return new StringBuilder("/company/production/services/service-").append(i % 100)
+                .append("/instances/instance-").append(i / 100).append("/config").toString();
+    }
+
+    private static long lookups(Map<String, Set<IZkDataListener>> map, String[] paths) {
+        long start = System.nanoTime();
+        int found = 0;
+        for (int round = 0; round < 5; round++) {
+            for (String path : paths) {
+                found += map.get(path) != null ? 1 : 0;
+            }
+        }
+        return (System.nanoTime() - start) / found;
+    }
+
+    private static long lookups(ZkPathTrie<Set<IZkDataListener>> trie, String[] paths) {
+        long start = System.nanoTime();
+        int found = 0;
+        for (int round = 0; round < 5; round++) {
+            for (String path : paths) {
+                found += trie.get(path) != null ? 1 : 0;
+            }
+        }
+        return (System.nanoTime() - start) / found;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ *
+ */
+package com.github.zkclient;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 2.3
+ */
+public class ZkPathTrieTest {
+
+    @Test
+    public void testPutGetRemove() {
+        ZkPathTrie<String> trie = new ZkPathTrie<String>();
+        assertNull(trie.put("/a/b/c", "c"));
+        assertNull(trie.put("/a", "a"));
+        assertEquals("a", trie.put("/a", "aa"));
+        assertNull(trie.put("/", "root"));
+        assertEquals(3, trie.size());
+        assertEquals("c", trie.get("/a/b/c"));
+        assertEquals("aa", trie.get("/a"));
+        assertEquals("root", trie.get("/"));
+        assertNull(trie.get("/a/b"));
+        assertNull(trie.get("/a/bc"));
+        assertNull(trie.get("/x"));
+        //
+        assertEquals("c", trie.remove("/a/b/c"));
+        assertNull(trie.remove("/a/b/c"));
+        assertNull(trie.get("/a/b/c"));
+        assertEquals(2, trie.size());
+        assertEquals("[/, /a]", new ArrayList<String>(trie.toMap().keySet()).toString());
+    }
+
+    @Test
+    public void testManyChildren() {
+        ZkPathTrie<Integer> trie = new ZkPathTrie<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            trie.put("/services/s" + i + "/leader", i);
+        }
+        assertEquals(1000, trie.size());
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Integer.valueOf(i), trie.get("/services/s" + i + "/leader"));
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            trie.remove("/services/s" + i + "/leader");
+        }
+        assertEquals(500, trie.size());
+        Map<String, Integer> map = trie.toMap();
+        assertEquals(500, map.size());
+        assertTrue(map.containsKey("/services/s1/leader"));
+    }
+
+    @Test
+    public void testRemoveSubtree() {
+        ZkPathTrie<Boolean> trie = new ZkPathTrie<Boolean>();
+        trie.put("/a", true);
+        trie.put("/a/b", true);
+        trie.put("/a/b/c", true);
+        trie.put("/ab", true);
+        trie.removeSubtree("/a");
+        assertEquals(1, trie.size());
+        assertTrue(trie.containsKey("/ab"));
+        trie.clear();
+        assertTrue(trie.isEmpty());
+        assertTrue(trie.toMap().isEmpty());
+    }
+}
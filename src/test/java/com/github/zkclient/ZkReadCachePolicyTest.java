@@ -0,0 +1,40 @@
+/**
+ *
+ */
+package com.github.zkclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @since 2.3
+ */
+public class ZkReadCachePolicyTest {
+
+    @Test
+    public void testLongestPrefix() {
+        ZkReadCachePolicy policy = new ZkReadCachePolicy()
+                .cache("/config", 5000)
+                .never("/config/locks");
+        assertEquals(5000, policy.getTtlMillis("/config"));
+        assertEquals(5000, policy.getTtlMillis("/config/a/b"));
+        assertEquals(ZkReadCachePolicy.NEVER, policy.getTtlMillis("/config/locks/l"));
+        // a prefix matches whole names only
+        assertEquals(ZkReadCachePolicy.NEVER, policy.getTtlMillis("/configs"));
+        assertEquals(5000, policy.getTtlMillis("/config/locksmith"));
+        assertEquals(ZkReadCachePolicy.NEVER, policy.getTtlMillis("/other"));
+        //
+        policy.cache("/", ZkReadCachePolicy.WATCHED_ONLY);
+        assertEquals(ZkReadCachePolicy.WATCHED_ONLY, policy.getTtlMillis("/other"));
+        assertEquals(ZkReadCachePolicy.WATCHED_ONLY, policy.getTtlMillis("/"));
+    }
+
+    @Test
+    public void testTrailingSlash() {
+        ZkReadCachePolicy policy = new ZkReadCachePolicy().cache("/config/", 5000);
+        assertEquals(5000, policy.getTtlMillis("/config/a"));
+        assertEquals(5000, policy.getTtlMillis("/config"));
+        assertEquals(ZkReadCachePolicy.NEVER, policy.getTtlMillis("/configs"));
+    }
+}
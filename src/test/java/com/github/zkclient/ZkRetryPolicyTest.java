@@ -0,0 +1,46 @@
+/**
+ *
+ */
+package com.github.zkclient;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @since 2.3
+ */
+public class ZkRetryPolicyTest {
+
+    @Test
+    public void testBackoffWithJitter() {
+        ZkRetryPolicy policy = new ZkRetryPolicy(10, 100, 1000, 0);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.getDelayMillis(1, 0);
+            assertTrue(first >= 50 && first <= 100);
+            long third = policy.getDelayMillis(3, 0);
+            assertTrue(third >= 200 && third <= 400);
+            long capped = policy.getDelayMillis(10, 0);
+            assertTrue(capped >= 500 && capped <= 1000);
+        }
+        assertEquals(-1, policy.getDelayMillis(11, 0));
+        assertEquals(Integer.MAX_VALUE, policy.getMaxWaitMillis(100000));
+    }
+
+    @Test
+    public void testDeadline() {
+        ZkRetryPolicy policy = new ZkRetryPolicy(Integer.MAX_VALUE, 1000, 60000, 3000);
+        assertTrue(policy.getDelayMillis(40, 2900) <= 100);
+        assertEquals(-1, policy.getDelayMillis(2, 3000));
+        assertEquals(500, policy.getMaxWaitMillis(2500));
+        assertEquals(0, policy.getMaxWaitMillis(4000));
+    }
+
+    @Test
+    public void testUntilConnected() {
+        assertEquals(0, ZkRetryPolicy.UNTIL_CONNECTED.getDelayMillis(1, 0));
+        assertEquals(0, ZkRetryPolicy.UNTIL_CONNECTED.getDelayMillis(1000000, Long.MAX_VALUE / 2));
+        assertEquals(Integer.MAX_VALUE, ZkRetryPolicy.UNTIL_CONNECTED.getMaxWaitMillis(0));
+    }
+}